@@ -0,0 +1,173 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Approximate mode of the ranking jobs, for dimensions with too many distinct keys to shuffle them all.
+ * <p>
+ * Each mapper counts its keys in a SpaceSavingSummary of ceil(1 / epsilon) counters and writes only that summary, so
+ * the shuffle is the same size for every mapper whatever the size of its split.  A single SummaryReducer merges the
+ * summaries and ranks the keys by the upper bound of their frequency.  Each ranked key is written with its error
+ * (its frequency is between count - error and count, and error is at most epsilon times the number of rows counted)
+ * and is marked...
+ * <p>
+ * guaranteed - Its lower bound is at least the upper bound of every key left out, so it is certainly in the Top K
+ * possible   - It may be in the Top K, or may only be there because of the error
+ * <p>
+ * For example: INFOSYS LIMITED - 130592 (error 0, guaranteed)
+ * <p>
+ * Merging follows the mergeable summaries argument: a key missing from a summary may still have had up to that
+ * summary's minCount() occurrences, which is added to its upper bound but not to its lower bound.
+ * <p>
+ * Configuration:
+ * h1b.approx.enabled (boolean, default false) - Rank from Space-Saving summaries instead of exact counts
+ * h1b.approx.epsilon (double, default 0.0001) - Bound on the error, as a fraction of the rows counted
+ */
+public class ApproximateTopK {
+
+    public static final String ENABLED = "h1b.approx.enabled";
+    public static final String EPSILON = "h1b.approx.epsilon";
+    public static final double DEFAULT_EPSILON = 0.0001;
+
+    public enum Counters {
+        ROWS_SUMMARIZED,
+        SUMMARIES_MERGED,
+        MAX_ERROR,
+        GUARANTEED_KEYS,
+        POSSIBLE_KEYS
+    }
+
+    /**
+     * @param conf (Configuration) - Job Configuration
+     * @return Returns true if the job ranks from Space-Saving summaries
+     */
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getBoolean(ENABLED, false);
+    }
+
+    /**
+     * @param conf (Configuration) - Job Configuration
+     * @return Returns the number of counters of the mappers' summaries
+     */
+    public static int capacity(Configuration conf) {
+        double epsilon = conf.getDouble(EPSILON, DEFAULT_EPSILON);
+        if (epsilon <= 0 || epsilon >= 1)
+            throw new IllegalArgumentException(EPSILON + " must be between 0 and 1, was " + epsilon);
+        return (int) Math.ceil(1 / epsilon);
+    }
+
+    /**
+     * Sets up a ranking job whose CountingMapper writes one SpaceSavingSummary per task, merged by a single
+     * SummaryReducer.
+     *
+     * @param job (Job) - The ranking job
+     */
+    public static void configure(Job job) {
+        job.setMapOutputKeyClass(NullWritable.class);
+        job.setMapOutputValueClass(SpaceSavingSummary.class);
+        job.setReducerClass(SummaryReducer.class);
+        job.setNumReduceTasks(1); // Every summary has to be merged into one
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+    }
+
+    /**
+     * Merges the summaries of every mapper and writes the Top K of the merged upper bounds, with their error and
+     * whether they are guaranteed to be in the Top K.
+     */
+    public static class SummaryReducer extends Reducer<NullWritable, SpaceSavingSummary, Text, Text> {
+
+        private final Text outKey = new Text();
+        private final Text outValue = new Text();
+
+        // Per merged key, indexed by the key's entry index in keys
+        private final ByteKeyCountMap keys = new ByteKeyCountMap(Long.MAX_VALUE);
+        private long[] presentCounts = new long[1024]; // Sum of the key's counts in the summaries that monitor it
+        private long[] presentMinCounts = new long[1024]; // Sum of minCount() of those same summaries
+        private long[] lowerBounds = new long[1024];
+        private long minCountSum; // Sum of minCount() of every summary
+
+        /**
+         * @param key     (NullWritable) - Every summary has the same key
+         * @param values  (Iterable<SpaceSavingSummary>) - One summary per map task
+         * @param context (Context) - The context to write the ranking to
+         */
+        public void reduce(NullWritable key, Iterable<SpaceSavingSummary> values, Context context)
+                throws IOException, InterruptedException {
+            long total = 0;
+            for (SpaceSavingSummary summary : values) {
+                merge(summary);
+                total += summary.total();
+                context.getCounter(Counters.SUMMARIES_MERGED).increment(1);
+            }
+            context.getCounter(Counters.ROWS_SUMMARIZED).increment(total);
+            writeRanking(context);
+        }
+
+        private void merge(SpaceSavingSummary summary) {
+            long minCount = summary.minCount();
+            minCountSum += minCount;
+            for (int counter = 0; counter < summary.size(); counter++) {
+                int entry = keys.addAndGetIndex(summary.key(counter), 0, summary.keyLength(counter), 0);
+                if (entry >= presentCounts.length) {
+                    presentCounts = Arrays.copyOf(presentCounts, 2 * entry);
+                    presentMinCounts = Arrays.copyOf(presentMinCounts, 2 * entry);
+                    lowerBounds = Arrays.copyOf(lowerBounds, 2 * entry);
+                }
+                presentCounts[entry] += summary.count(counter);
+                presentMinCounts[entry] += minCount;
+                lowerBounds[entry] += summary.count(counter) - summary.error(counter);
+            }
+        }
+
+        private long upperBound(int entry) {
+            return presentCounts[entry] + minCountSum - presentMinCounts[entry];
+        }
+
+        private void writeRanking(final Context context) throws IOException, InterruptedException {
+            TopKRanking ranking = new TopKRanking(context.getConfiguration().getInt(TopKReducer.K, 10));
+            for (int entry = 0; entry < keys.size(); entry++) {
+                // The bound sums the summaries' counts, which can add up to more than an int
+                ranking.offer((int) Math.min(upperBound(entry), Integer.MAX_VALUE), keys.keyBytes(),
+                        keys.keyStart(entry), keys.keyLength(entry));
+            }
+
+            // The largest frequency of a key that did not make the ranking: either a merged key ranked below the
+            // lowest rank, or a key no summary monitored, which can have up to minCountSum occurrences
+            final long[] lowestRank = {Long.MAX_VALUE};
+            ranking.forEachDescending(new KeyCountVisitor() {
+                public void visit(byte[] bytes, int start, int length, int count) {
+                    lowestRank[0] = count;
+                }
+            });
+            long threshold = minCountSum;
+            long maxError = 0;
+            for (int entry = 0; entry < keys.size(); entry++) {
+                long upper = upperBound(entry);
+                if (upper < lowestRank[0])
+                    threshold = Math.max(threshold, upper);
+                maxError = Math.max(maxError, upper - lowerBounds[entry]);
+            }
+            context.getCounter(Counters.MAX_ERROR).increment(maxError);
+
+            final long outsideMax = threshold;
+            ranking.forEachDescending(new KeyCountVisitor() {
+                public void visit(byte[] bytes, int start, int length, int count)
+                        throws IOException, InterruptedException {
+                    int entry = keys.addAndGetIndex(bytes, start, length, 0);
+                    long error = count - lowerBounds[entry];
+                    boolean guaranteed = lowerBounds[entry] >= outsideMax;
+                    context.getCounter(guaranteed ? Counters.GUARANTEED_KEYS : Counters.POSSIBLE_KEYS).increment(1);
+                    outKey.set(bytes, start, length);
+                    outValue.set(count + " (error " + error + ", " + (guaranteed ? "guaranteed" : "possible") + ")");
+                    context.write(outKey, outValue);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,223 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from byte[] keys to int counts, used by the mappers to aggregate frequency counts in
+ * memory before anything is written to the Context.
+ * <p>
+ * Keys are copied into a single growing byte arena, and entries are stored in parallel int arrays, so adding to a key
+ * that is already in the map does not allocate anything.  The map keeps track of how many bytes its arrays take up
+ * and refuses to grow past maxBytes; when add() returns false the caller is expected to flush the map and clear() it.
+ */
+public class ByteKeyCountMap {
+
+    private static final int INITIAL_SLOTS = 1024;
+    private static final int INITIAL_ARENA = 16 * 1024;
+
+    private final long maxBytes;
+
+    private int[] slots;     // entry index + 1, 0 means the slot is empty
+    private int[] hashes;
+    private int[] keyStarts;
+    private int[] keyLengths;
+    private int[] counts;
+    private byte[] arena;
+    private int arenaUsed;
+    private int size;
+
+    /**
+     * @param maxBytes (long) - Upper bound on the memory the map's arrays may take up
+     */
+    public ByteKeyCountMap(long maxBytes) {
+        this.maxBytes = maxBytes;
+        slots = new int[INITIAL_SLOTS];
+        hashes = new int[INITIAL_SLOTS / 2];
+        keyStarts = new int[INITIAL_SLOTS / 2];
+        keyLengths = new int[INITIAL_SLOTS / 2];
+        counts = new int[INITIAL_SLOTS / 2];
+        arena = new byte[INITIAL_ARENA];
+    }
+
+    /**
+     * Adds delta to the count of the key stored in bytes[start, start + length).
+     *
+     * @param bytes  (byte[]) - Array containing the key
+     * @param start  (int) - Offset of the key in bytes[]
+     * @param length (int) - Length of the key
+     * @param delta  (int) - Amount to add to the key's count
+     * @return Returns false if the key is new and there was no room for it within maxBytes.  Nothing is changed in
+     * that case.
+     */
+    public boolean add(byte[] bytes, int start, int length, int delta) {
+        return addAndGetIndex(bytes, start, length, delta) >= 0;
+    }
+
+    /**
+     * Same as add(), but returns the key's entry index.  Entries are numbered in insertion order starting at 0, the
+     * same order forEach() hands them out in, so the index can be used as a dictionary id for the key.
+     *
+     * @param bytes  (byte[]) - Array containing the key
+     * @param start  (int) - Offset of the key in bytes[]
+     * @param length (int) - Length of the key
+     * @param delta  (int) - Amount to add to the key's count
+     * @return Returns the key's entry index, or -1 if the key is new and there was no room for it within maxBytes
+     */
+    public int addAndGetIndex(byte[] bytes, int start, int length, int delta) {
+        int hash = hash(bytes, start, length);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        int entry;
+        // Linear probe until we find the key or an empty slot
+        while ((entry = slots[slot]) != 0) {
+            entry--;
+            if (hashes[entry] == hash && keyEquals(entry, bytes, start, length)) {
+                counts[entry] += delta;
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (!ensureRoom(length))
+            return -1;
+        if (size == slots.length / 2) // keep load factor <= 0.5 before placing the new entry
+            slot = rehash(hash);
+
+        if (size == counts.length)
+            growEntries();
+        System.arraycopy(bytes, start, arena, arenaUsed, length);
+        hashes[size] = hash;
+        keyStarts[size] = arenaUsed;
+        keyLengths[size] = length;
+        counts[size] = delta;
+        arenaUsed += length;
+        slots[slot] = size + 1;
+        return size++;
+    }
+
+    /**
+     * Hands every key and its count to visitor, in insertion order.
+     *
+     * @param visitor (KeyCountVisitor) - Receives each entry
+     */
+    public void forEach(KeyCountVisitor visitor) throws IOException, InterruptedException {
+        for (int entry = 0; entry < size; entry++)
+            visitor.visit(arena, keyStarts[entry], keyLengths[entry], counts[entry]);
+    }
+
+    /**
+     * @return Returns the array the keys are stored in, see keyStart() and keyLength()
+     */
+    public byte[] keyBytes() {
+        return arena;
+    }
+
+    /**
+     * @param entry (int) - Entry index, see addAndGetIndex()
+     * @return Returns the offset of the entry's key in keyBytes()
+     */
+    public int keyStart(int entry) {
+        return keyStarts[entry];
+    }
+
+    /**
+     * @param entry (int) - Entry index, see addAndGetIndex()
+     * @return Returns the length of the entry's key
+     */
+    public int keyLength(int entry) {
+        return keyLengths[entry];
+    }
+
+    /**
+     * Removes all entries.  The arrays that have been allocated so far are kept for reuse.
+     */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        arenaUsed = 0;
+        size = 0;
+    }
+
+    /**
+     * @return Returns the number of distinct keys in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Returns the number of bytes currently taken up by the map's arrays
+     */
+    public long memoryUsed() {
+        return arena.length + 4L * slots.length + 16L * counts.length;
+    }
+
+    /**
+     * Makes sure that a new key of keyLength bytes can be added without going over maxBytes, growing the arena if
+     * that is needed.
+     */
+    private boolean ensureRoom(int keyLength) {
+        long needed = memoryUsed();
+        int arenaLength = arena.length;
+        while (arenaUsed + keyLength > arenaLength) {
+            needed += arenaLength;
+            arenaLength *= 2;
+        }
+        if (size == slots.length / 2)
+            needed += 4L * slots.length;
+        if (size == counts.length)
+            needed += 16L * counts.length;
+        // An empty map always accepts a key so that a single huge key cannot stall the mapper
+        if (needed > maxBytes && size > 0)
+            return false;
+
+        if (arenaLength != arena.length)
+            arena = Arrays.copyOf(arena, arenaLength);
+        return true;
+    }
+
+    /**
+     * Doubles the slot table and re-inserts every entry.
+     *
+     * @param hash (int) - Hash of the key about to be inserted
+     * @return Returns the empty slot for that key in the new table
+     */
+    private int rehash(int hash) {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = hashes[entry] & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = entry + 1;
+        }
+        int slot = hash & mask;
+        while (slots[slot] != 0)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void growEntries() {
+        int capacity = counts.length * 2;
+        hashes = Arrays.copyOf(hashes, capacity);
+        keyStarts = Arrays.copyOf(keyStarts, capacity);
+        keyLengths = Arrays.copyOf(keyLengths, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+    }
+
+    private boolean keyEquals(int entry, byte[] bytes, int start, int length) {
+        if (keyLengths[entry] != length)
+            return false;
+        int keyStart = keyStarts[entry];
+        for (int i = 0; i < length; i++) {
+            if (arena[keyStart + i] != bytes[start + i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int start, int length) {
+        int hash = 1;
+        for (int i = start; i < start + length; i++)
+            hash = 31 * hash + bytes[i];
+        return hash ^ (hash >>> 16); // spread the high bits, the table is indexed with the low bits
+    }
+}
@@ -0,0 +1,78 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+
+/**
+ * One-time conversion of h1b_kaggle.csv into the columnar format written by ColumnarFileWriter.  This is a map-only
+ * job: every map task parses its split of the csv and writes it out as one columnar file (part-m-NNNNN.h1bc).
+ * The ranking jobs can then read the converted files with -D h1b.input.columnar=true.
+ * <p>
+ * The csv header row is dropped during the conversion.
+ * <p>
+ * Configuration:
+ * h1b.columnar.rowgroup.rows (int, default 65536) - Maximum number of rows per row group
+ * h1b.csv.multiline (boolean, default false) - Read rows whose quoted fields contain line breaks, see CsvRowRecordReader
+ * h1b.filter.* - Only convert the rows the RowFilter accepts, see RowFilter
+ */
+public class ColumnarConverter {
+
+    public static final String ROW_GROUP_ROWS = "h1b.columnar.rowgroup.rows";
+
+    /**
+     * Parses the csv rows handed to it by the (identity) mapper and writes them to a columnar file.
+     */
+    public static class ColumnarOutputFormat extends FileOutputFormat<LongWritable, Text> {
+
+        public RecordWriter<LongWritable, Text> getRecordWriter(TaskAttemptContext context) throws IOException {
+            Path file = getDefaultWorkFile(context, ".h1bc");
+            FSDataOutputStream out = file.getFileSystem(context.getConfiguration()).create(file, false);
+            int rowGroupRows = context.getConfiguration().getInt(ROW_GROUP_ROWS,
+                    ColumnarFileWriter.DEFAULT_ROW_GROUP_ROWS);
+            final ColumnarFileWriter writer = new ColumnarFileWriter(out, rowGroupRows);
+            final CsvFieldScanner scanner = new CsvFieldScanner(H1bColumns.COUNT);
+
+            return new RecordWriter<LongWritable, Text>() {
+                public void write(LongWritable key, Text value) throws IOException {
+                    int columns = scanner.scan(value.getBytes(), value.getLength(), H1bColumns.COUNT);
+                    if (columns <= H1bColumns.EMPLOYER_NAME)
+                        return; // Improperly formatted or short row
+                    if (scanner.length(H1bColumns.ID) == 0)
+                        return; // Header row, the ID column's name is blank ("")
+                    writer.write(scanner, value.getBytes());
+                }
+
+                public void close(TaskAttemptContext context) throws IOException {
+                    writer.close();
+                }
+            };
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] paths = new GenericOptionsParser(conf, args).getRemainingArgs();
+        Job job = Job.getInstance(conf, "Convert H-1B csv to columnar");
+        job.setJarByClass(ColumnarConverter.class);
+        job.setMapperClass(Mapper.class); // Identity, the rows are parsed by ColumnarOutputFormat
+        if (RowFilter.isConfigured(conf) || CsvRowRecordReader.isEnabled(conf))
+            job.setInputFormatClass(FilteringTextInputFormat.class);
+        job.setNumReduceTasks(0);
+        job.setOutputKeyClass(LongWritable.class);
+        job.setOutputValueClass(Text.class);
+        job.setOutputFormatClass(ColumnarOutputFormat.class);
+        FileInputFormat.addInputPath(job, new Path(paths[0]));
+        FileOutputFormat.setOutputPath(job, new Path(paths[1]));
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
@@ -0,0 +1,133 @@
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the row groups of a file written by ColumnarFileWriter into an H1bRecord.  Columns that were not asked for
+ * are skipped with a seek, so their bytes are never read or decoded.
+ */
+public class ColumnarFileReader implements Closeable {
+
+    private final FSDataInputStream in;
+    private final long end;
+    private final boolean[] wanted;
+    private final byte[][] payloads = new byte[H1bColumns.COUNT][];
+
+    /**
+     * @param in     (FSDataInputStream) - Stream positioned at the start of the file.  Closed by close().
+     * @param length (long) - Length of the file
+     * @param wanted (boolean[]) - wanted[column] is true for every column (H1bColumns) that should be loaded
+     */
+    public ColumnarFileReader(FSDataInputStream in, long length, boolean[] wanted) throws IOException {
+        this.in = in;
+        this.end = length;
+        this.wanted = wanted;
+        if (in.readInt() != ColumnarFileWriter.MAGIC)
+            throw new IOException("Not a columnar H-1B file");
+        byte version = in.readByte();
+        if (version != ColumnarFileWriter.VERSION)
+            throw new IOException("Unsupported columnar H-1B file version " + version);
+    }
+
+    /**
+     * Decodes the next row group into record and moves record to its first row.
+     *
+     * @param record (H1bRecord) - Record to load the row group into
+     * @return Returns false if there are no more row groups
+     */
+    public boolean nextRowGroup(H1bRecord record) throws IOException {
+        if (in.getPos() >= end)
+            return false;
+        int rows = in.readInt();
+        for (int i = 0; i < ColumnarFileWriter.STORED_COLUMNS.length; i++) {
+            int column = in.readByte();
+            int length = in.readInt();
+            if (!wanted[column]) {
+                in.seek(in.getPos() + length); // Skip the column without reading it
+                continue;
+            }
+            byte[] payload = payloads[column];
+            if (payload == null || payload.length < length)
+                payload = payloads[column] = new byte[Math.max(length, 1024)];
+            in.readFully(payload, 0, length);
+
+            switch (ColumnarFileWriter.encoding(column)) {
+                case ColumnarFileWriter.DICTIONARY:
+                    decodeDictionaryColumn(record, column, payload, rows);
+                    break;
+                case ColumnarFileWriter.INT:
+                    int[] ints = record.ints[column] = ensureCapacity(record.ints[column], rows);
+                    for (int row = 0; row < rows; row++)
+                        ints[row] = readInt(payload, 4 * row);
+                    break;
+                default:
+                    double[] doubles = record.doubles[column];
+                    if (doubles == null || doubles.length < rows)
+                        doubles = record.doubles[column] = new double[rows];
+                    for (int row = 0; row < rows; row++)
+                        doubles[row] = Double.longBitsToDouble(readLong(payload, 8 * row));
+            }
+            record.loaded[column] = true;
+        }
+        record.rows = rows;
+        record.row = 0;
+        return true;
+    }
+
+    /**
+     * @return Returns how far into the file the reader is, between 0 and 1
+     */
+    public float getProgress() throws IOException {
+        return end == 0 ? 1.0f : Math.min(1.0f, in.getPos() / (float) end);
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * The dictionary values are left in place in the payload, the record only gets their offsets and lengths.
+     */
+    private static void decodeDictionaryColumn(H1bRecord record, int column, byte[] payload, int rows) {
+        int size = readInt(payload, 0);
+        int[] starts = record.dictionaryStarts[column] = ensureCapacity(record.dictionaryStarts[column], size);
+        int[] lengths = record.dictionaryLengths[column] = ensureCapacity(record.dictionaryLengths[column], size);
+        int pos = 4;
+        for (int id = 0; id < size; id++) {
+            lengths[id] = readInt(payload, pos);
+            starts[id] = pos + 4;
+            pos += 4 + lengths[id];
+        }
+        record.dictionaryBytes[column] = payload;
+
+        int idWidth = payload[pos++];
+        int[] ids = record.ids[column] = ensureCapacity(record.ids[column], rows);
+        for (int row = 0; row < rows; row++) {
+            if (idWidth == 1) {
+                int id = payload[pos++] & 0xFF;
+                ids[row] = id == 0xFF ? -1 : id;
+            } else if (idWidth == 2) {
+                int id = ((payload[pos] & 0xFF) << 8) | (payload[pos + 1] & 0xFF);
+                ids[row] = id == 0xFFFF ? -1 : id;
+                pos += 2;
+            } else {
+                ids[row] = readInt(payload, pos);
+                pos += 4;
+            }
+        }
+    }
+
+    private static int[] ensureCapacity(int[] array, int length) {
+        return array == null || array.length < length ? new int[Math.max(length, 16)] : array;
+    }
+
+    private static int readInt(byte[] bytes, int pos) {
+        return ((bytes[pos] & 0xFF) << 24) | ((bytes[pos + 1] & 0xFF) << 16) | ((bytes[pos + 2] & 0xFF) << 8)
+                | (bytes[pos + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] bytes, int pos) {
+        return ((long) readInt(bytes, pos) << 32) | (readInt(bytes, pos + 4) & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes rows of the H-1B dataset in a compact binary columnar format, so that the quoted csv only has to be parsed
+ * once.  The files are read back with ColumnarFileReader (through ColumnarInputFormat).
+ * <p>
+ * A file starts with the int MAGIC and the byte VERSION, followed by row groups of up to rowGroupRows rows each.
+ * A row group is laid out as...
+ * <p>
+ * int rowCount, then for every column in STORED_COLUMNS: byte column index (H1bColumns), int payload length, payload
+ * <p>
+ * The payload length lets a reader skip over the columns it does not need without decoding them.  The payloads are:
+ * <p>
+ * Dictionary columns (CASE_STATUS, EMPLOYER_NAME, SOC_NAME, JOB_TITLE, FULL_TIME_POSITION, WORKSITE):
+ * int dictionarySize, dictionarySize x (int length, bytes), byte idWidth (1, 2 or 4), rowCount x id.
+ * Ids are numbered in order of first appearance within the row group; the largest id of the width (0xFF, 0xFFFF or
+ * -1) means the value was blank (NA).  Values are stored without their surrounding quotes.
+ * <p>
+ * YEAR: rowCount x int, H1bColumns.NULL_INT when blank.
+ * PREVAILING_WAGE, LON, LAT: rowCount x double, NaN when blank.
+ */
+public class ColumnarFileWriter implements Closeable {
+
+    public static final int MAGIC = 0x48314243; // "H1BC"
+    public static final byte VERSION = 1;
+    public static final int DEFAULT_ROW_GROUP_ROWS = 64 * 1024;
+
+    public static final int[] STORED_COLUMNS = {H1bColumns.CASE_STATUS, H1bColumns.EMPLOYER_NAME,
+            H1bColumns.SOC_NAME, H1bColumns.JOB_TITLE, H1bColumns.FULL_TIME_POSITION, H1bColumns.PREVAILING_WAGE,
+            H1bColumns.YEAR, H1bColumns.WORKSITE, H1bColumns.LON, H1bColumns.LAT};
+
+    public static final byte DICTIONARY = 0;
+    public static final byte INT = 1;
+    public static final byte DOUBLE = 2;
+
+    /**
+     * @param column (int) - Column index (H1bColumns)
+     * @return Returns how the column is encoded: DICTIONARY, INT or DOUBLE
+     */
+    public static byte encoding(int column) {
+        switch (column) {
+            case H1bColumns.YEAR:
+                return INT;
+            case H1bColumns.PREVAILING_WAGE:
+            case H1bColumns.LON:
+            case H1bColumns.LAT:
+                return DOUBLE;
+            default:
+                return DICTIONARY;
+        }
+    }
+
+    private final DataOutputStream out;
+    private final int rowGroupRows;
+    private final ByteKeyCountMap[] dictionaries = new ByteKeyCountMap[H1bColumns.COUNT];
+    private final int[][] ids = new int[H1bColumns.COUNT][];
+    private final int[][] ints = new int[H1bColumns.COUNT][];
+    private final double[][] doubles = new double[H1bColumns.COUNT][];
+    private int rows;
+
+    /**
+     * @param out          (DataOutputStream) - Stream the file is written to.  Closed by close().
+     * @param rowGroupRows (int) - Maximum number of rows per row group
+     */
+    public ColumnarFileWriter(DataOutputStream out, int rowGroupRows) throws IOException {
+        this.out = out;
+        this.rowGroupRows = rowGroupRows;
+        for (int column : STORED_COLUMNS) {
+            switch (encoding(column)) {
+                case DICTIONARY:
+                    dictionaries[column] = new ByteKeyCountMap(Long.MAX_VALUE);
+                    ids[column] = new int[rowGroupRows];
+                    break;
+                case INT:
+                    ints[column] = new int[rowGroupRows];
+                    break;
+                default:
+                    doubles[column] = new double[rowGroupRows];
+            }
+        }
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    /**
+     * Adds the row that scanner has just scanned.  Columns missing from the end of a short row are stored as blank.
+     *
+     * @param scanner (CsvFieldScanner) - Scanner that has scanned row
+     * @param row     (byte[]) - The bytes of the row
+     */
+    public void write(CsvFieldScanner scanner, byte[] row) throws IOException {
+        int columns = scanner.columns();
+        for (int column : STORED_COLUMNS) {
+            boolean present = column < columns;
+            switch (encoding(column)) {
+                case DICTIONARY:
+                    // Blank values are an unquoted NA, real values are always quoted
+                    ids[column][rows] = present && scanner.isQuoted(column) ? dictionaries[column]
+                            .addAndGetIndex(row, scanner.start(column), scanner.length(column), 1) : -1;
+                    break;
+                case INT:
+                    ints[column][rows] = present
+                            ? H1bColumns.parseInt(row, scanner.start(column), scanner.length(column))
+                            : H1bColumns.NULL_INT;
+                    break;
+                default:
+                    doubles[column][rows] = present
+                            ? parseDouble(row, scanner.start(column), scanner.length(column)) : Double.NaN;
+            }
+        }
+        if (++rows == rowGroupRows)
+            writeRowGroup();
+    }
+
+    /**
+     * Writes the last row group and closes the stream.
+     */
+    public void close() throws IOException {
+        if (rows > 0)
+            writeRowGroup();
+        out.close();
+    }
+
+    private void writeRowGroup() throws IOException {
+        out.writeInt(rows);
+        for (int column : STORED_COLUMNS) {
+            out.writeByte(column);
+            switch (encoding(column)) {
+                case DICTIONARY:
+                    writeDictionaryColumn(column);
+                    break;
+                case INT:
+                    out.writeInt(4 * rows);
+                    for (int row = 0; row < rows; row++)
+                        out.writeInt(ints[column][row]);
+                    break;
+                default:
+                    out.writeInt(8 * rows);
+                    for (int row = 0; row < rows; row++)
+                        out.writeDouble(doubles[column][row]);
+            }
+        }
+        for (ByteKeyCountMap dictionary : dictionaries) {
+            if (dictionary != null)
+                dictionary.clear();
+        }
+        rows = 0;
+    }
+
+    private void writeDictionaryColumn(int column) throws IOException {
+        ByteKeyCountMap dictionary = dictionaries[column];
+        int size = dictionary.size();
+        int length = 4;
+        for (int id = 0; id < size; id++)
+            length += 4 + dictionary.keyLength(id);
+        int idWidth = idWidth(size);
+        out.writeInt(length + 1 + idWidth * rows);
+
+        out.writeInt(size);
+        for (int id = 0; id < size; id++) {
+            out.writeInt(dictionary.keyLength(id));
+            out.write(dictionary.keyBytes(), dictionary.keyStart(id), dictionary.keyLength(id));
+        }
+        out.writeByte(idWidth);
+        int[] columnIds = ids[column];
+        for (int row = 0; row < rows; row++) {
+            if (idWidth == 1)
+                out.writeByte(columnIds[row]); // -1 is written as 0xFF
+            else if (idWidth == 2)
+                out.writeShort(columnIds[row]); // -1 is written as 0xFFFF
+            else
+                out.writeInt(columnIds[row]);
+        }
+    }
+
+    /**
+     * @return Returns the smallest id width that can hold every id of the dictionary as well as the blank marker
+     */
+    private static int idWidth(int dictionarySize) {
+        if (dictionarySize < 0xFF)
+            return 1;
+        if (dictionarySize < 0xFFFF)
+            return 2;
+        return 4;
+    }
+
+    /**
+     * The conversion only happens once per dataset, so the wage and coordinate columns are simply parsed as Strings.
+     *
+     * @return Returns the number in bytes[start, start + length), or NaN if it was blank (NA) or not a number
+     */
+    private static double parseDouble(byte[] bytes, int start, int length) {
+        if (length == 0 || bytes[start] == 'N')
+            return Double.NaN;
+        try {
+            return Double.parseDouble(new String(bytes, start, length, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import java.io.IOException;
+
+/**
+ * InputFormat for the files written by ColumnarConverter.  Hands every row to the mapper as an H1bRecord, loading
+ * only the columns set with setColumns().
+ * <p>
+ * Each columnar file is the output of one map task of the conversion, so files are not split any further.
+ * <p>
+ * If the job has a RowFilter, rows that fail it are skipped by the record reader and never reach the mapper.
+ * <p>
+ * Configuration:
+ * h1b.input.columnar (boolean, default false) - The ranking jobs read columnar files instead of the csv
+ * h1b.columnar.columns (comma separated column indexes, default all) - Columns to load
+ */
+public class ColumnarInputFormat extends FileInputFormat<NullWritable, H1bRecord> {
+
+    public static final String ENABLED = "h1b.input.columnar";
+    public static final String COLUMNS = "h1b.columnar.columns";
+
+    /**
+     * @param conf (Configuration) - Job Configuration
+     * @return Returns true if the job should read columnar files
+     */
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getBoolean(ENABLED, false);
+    }
+
+    /**
+     * Sets the columns the mappers need.  No other column is read from the files.
+     *
+     * @param conf    (Configuration) - Job Configuration
+     * @param columns (int...) - Column indexes (H1bColumns)
+     */
+    public static void setColumns(Configuration conf, int... columns) {
+        StringBuilder value = new StringBuilder();
+        for (int column : columns) {
+            if (value.length() > 0)
+                value.append(',');
+            value.append(column);
+        }
+        conf.set(COLUMNS, value.toString());
+    }
+
+    /**
+     * @param conf (Configuration) - Job Configuration
+     * @return Returns wanted[column] = true for every column to load
+     */
+    public static boolean[] getColumns(Configuration conf) {
+        boolean[] wanted = new boolean[H1bColumns.COUNT];
+        int[] columns = conf.getInts(COLUMNS);
+        if (columns.length == 0) {
+            for (int column : ColumnarFileWriter.STORED_COLUMNS)
+                wanted[column] = true;
+        }
+        for (int column : columns)
+            wanted[column] = true;
+        RowFilter filter = RowFilter.get(conf);
+        if (filter != null) {
+            for (int column : filter.columns())
+                wanted[column] = true;
+        }
+        return wanted;
+    }
+
+    protected boolean isSplitable(JobContext context, Path file) {
+        return false;
+    }
+
+    public RecordReader<NullWritable, H1bRecord> createRecordReader(InputSplit split, TaskAttemptContext context) {
+        return new ColumnarRecordReader();
+    }
+
+    public static class ColumnarRecordReader extends RecordReader<NullWritable, H1bRecord> {
+
+        private final H1bRecord record = new H1bRecord();
+        private ColumnarFileReader reader;
+        private RowFilter filter;
+        private org.apache.hadoop.mapreduce.Counter rowsPruned; // FileInputFormat.Counter would shadow it
+
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+            FileSplit fileSplit = (FileSplit) split;
+            Configuration conf = context.getConfiguration();
+            Path path = fileSplit.getPath();
+            FileSystem fs = path.getFileSystem(conf);
+            reader = new ColumnarFileReader(fs.open(path), fileSplit.getLength(), getColumns(conf));
+            filter = RowFilter.get(conf);
+            rowsPruned = context.getCounter(RowFilter.Counters.ROWS_PRUNED);
+        }
+
+        /**
+         * Moves the record to the next row that passes the filter, decoding the next row group once the current one
+         * is used up.
+         */
+        public boolean nextKeyValue() throws IOException {
+            while (nextRow()) {
+                if (filter == null || filter.accept(record))
+                    return true;
+                rowsPruned.increment(1);
+            }
+            return false;
+        }
+
+        private boolean nextRow() throws IOException {
+            if (++record.row < record.rows)
+                return true;
+            while (reader.nextRowGroup(record)) {
+                if (record.rows > 0)
+                    return true;
+            }
+            return false;
+        }
+
+        public NullWritable getCurrentKey() {
+            return NullWritable.get();
+        }
+
+        public H1bRecord getCurrentValue() {
+            return record;
+        }
+
+        public float getProgress() throws IOException {
+            return reader.getProgress();
+        }
+
+        public void close() throws IOException {
+            if (reader != null)
+                reader.close();
+        }
+    }
+}
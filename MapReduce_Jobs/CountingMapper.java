@@ -0,0 +1,260 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+import java.io.IOException;
+
+/**
+ * Base class for the frequency counting mappers.  Subclasses find the key they want to count in each row (a csv
+ * Text row, or an H1bRecord when reading columnar files) and pass its bytes to emit(), which either writes a <key, 1>
+ * pair to the Context right away (the original behaviour, summed later by IntSumCombiner), or adds it to an in-mapper
+ * ByteKeyCountMap.
+ * <p>
+ * With in-mapper combining each distinct key is only written once per flush of the map, which happens in cleanup()
+ * or early, whenever the map would grow past its memory threshold.  This keeps the per-row pairs out of the sort
+ * buffer and the spill files entirely.
+ * <p>
+ * With key interning (see KeyInterning) the keys are written to the Context as LongWritable ids instead of Text, and
+ * each distinct key's <id, key> pair is written once to the task's dictionary file instead of being shuffled.
+ * <p>
+ * In approximate mode (see ApproximateTopK) the keys are counted in a fixed-size SpaceSavingSummary instead, and the
+ * summary is the only thing the task writes.
+ * <p>
+ * Every task also measures where its time goes (reading rows, finding and counting keys in map(), flushing in
+ * cleanup()), how many rows were rejected and why (see reject()) and how many keys and key bytes it wrote.  The totals
+ * are published in Counters and the task's own numbers are written with TaskMetrics.
+ * <p>
+ * Configuration:
+ * h1b.mapper.combine.inmemory (boolean, default true) - Aggregate in the mapper instead of emitting <key, 1> pairs
+ * h1b.mapper.combine.memory.bytes (long, default 32MB) - Memory threshold at which the map is flushed early
+ * h1b.keys.intern (boolean, default false) - Shuffle 64-bit key ids instead of the keys, see KeyInterning
+ * h1b.approx.enabled (boolean, default false) - Count in a Space-Saving summary, see ApproximateTopK
+ */
+public abstract class CountingMapper<VALUEIN> extends Mapper<Object, VALUEIN, WritableComparable<?>, Writable> {
+
+    public static final String IN_MEMORY_COMBINE = "h1b.mapper.combine.inmemory";
+    public static final String COMBINE_MEMORY_BYTES = "h1b.mapper.combine.memory.bytes";
+    public static final long DEFAULT_COMBINE_MEMORY_BYTES = 32L * 1024 * 1024;
+
+    public enum Counters {
+        IN_MEMORY_FLUSHES,
+        IN_MEMORY_EARLY_FLUSHES,
+        ROWS_MALFORMED,
+        ROWS_BLANK_KEY,
+        ROWS_SHORT_KEY,
+        KEYS_COUNTED,
+        KEY_BYTES_WRITTEN,
+        READ_NANOS,
+        MAP_NANOS,
+        FLUSH_NANOS
+    }
+
+    // Indexed by CsvKeyFinder.Rejection.ordinal()
+    private static final Counters[] REJECTION_COUNTERS = {
+            Counters.ROWS_MALFORMED, Counters.ROWS_BLANK_KEY, Counters.ROWS_SHORT_KEY};
+
+    private final static IntWritable one = new IntWritable(1);
+    private final Text outKey = new Text();
+    private final LongWritable outId = new LongWritable();
+    private final IntWritable outCount = new IntWritable();
+    private ByteKeyCountMap counts;
+    private SpaceSavingSummary summary; // Only used in approximate mode
+
+    // Only used with key interning
+    private MultipleOutputs<WritableComparable<?>, Writable> dictionary;
+    private ByteKeyCountMap keysWritten; // Keys already in the dictionary, when there is no in-mapper map
+
+    // Metrics, published in run() once the task is done
+    private final long[] rejections = new long[CsvKeyFinder.Rejection.values().length];
+    private long keysCounted;
+    private long recordsWritten;
+    private long keyBytesWritten;
+
+    /**
+     * Reads the in-mapper combining, key interning and approximate mode settings from the job Configuration.
+     *
+     * @param context (Context) - The context of this map task
+     */
+    protected void setup(Context context) throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        if (ApproximateTopK.isEnabled(conf)) {
+            summary = new SpaceSavingSummary(ApproximateTopK.capacity(conf));
+            return;
+        }
+        long memoryBytes = conf.getLong(COMBINE_MEMORY_BYTES, DEFAULT_COMBINE_MEMORY_BYTES);
+        if (conf.getBoolean(IN_MEMORY_COMBINE, true))
+            counts = new ByteKeyCountMap(memoryBytes);
+        if (KeyInterning.isEnabled(conf)) {
+            dictionary = new MultipleOutputs<>(context);
+            if (counts == null)
+                keysWritten = new ByteKeyCountMap(memoryBytes);
+        }
+    }
+
+    /**
+     * Counts one occurrence of the key stored in bytes[start, start + length).
+     *
+     * @param bytes   (byte[]) - Array containing the key, usually the bytes of the input row
+     * @param start   (int) - Offset of the key in bytes[]
+     * @param length  (int) - Length of the key
+     * @param context (Context) - The Context that we will be writing map output <key, value> pairs to
+     */
+    protected void emit(byte[] bytes, int start, int length, Context context)
+            throws IOException, InterruptedException {
+        keysCounted++;
+        if (summary != null) {
+            summary.offer(bytes, start, length);
+            return;
+        }
+        if (counts == null) {
+            write(bytes, start, length, one, context);
+            if (keysWritten != null && !keysWritten.add(bytes, start, length, 1)) {
+                // Out of room, write the keys seen so far.  A key written twice to the dictionary is harmless.
+                writeDictionary(keysWritten);
+                keysWritten.clear();
+                keysWritten.add(bytes, start, length, 1);
+            }
+            return;
+        }
+        if (!counts.add(bytes, start, length, 1)) {
+            // Map is full, write out what we have so far and start over
+            context.getCounter(Counters.IN_MEMORY_EARLY_FLUSHES).increment(1);
+            flush(context);
+            counts.add(bytes, start, length, 1);
+        }
+    }
+
+    /**
+     * Counts a row that had no key to count.
+     *
+     * @param rejection (CsvKeyFinder.Rejection) - Why the row was discarded
+     */
+    protected void reject(CsvKeyFinder.Rejection rejection) {
+        rejections[rejection.ordinal()]++;
+    }
+
+    /**
+     * Same as Mapper.run(), timing the reading of the rows, the calls to map() and cleanup() separately, then
+     * publishes the task's metrics.
+     *
+     * @param context (Context) - The context of this map task
+     */
+    public void run(Context context) throws IOException, InterruptedException {
+        long taskStart = System.nanoTime();
+        long readNanos = 0;
+        long mapNanos = 0;
+        long rows = 0;
+        setup(context);
+        long cleanupStart;
+        try {
+            long readStart = System.nanoTime();
+            while (context.nextKeyValue()) {
+                long mapStart = System.nanoTime();
+                readNanos += mapStart - readStart;
+                map(context.getCurrentKey(), context.getCurrentValue(), context);
+                readStart = System.nanoTime();
+                mapNanos += readStart - mapStart;
+                rows++;
+            }
+            cleanupStart = System.nanoTime();
+            readNanos += cleanupStart - readStart;
+        } finally {
+            cleanup(context);
+        }
+        long taskEnd = System.nanoTime();
+
+        context.getCounter(Counters.READ_NANOS).increment(readNanos);
+        context.getCounter(Counters.MAP_NANOS).increment(mapNanos);
+        context.getCounter(Counters.FLUSH_NANOS).increment(taskEnd - cleanupStart);
+        context.getCounter(Counters.KEYS_COUNTED).increment(keysCounted);
+        context.getCounter(Counters.KEY_BYTES_WRITTEN).increment(keyBytesWritten);
+        for (int i = 0; i < rejections.length; i++)
+            context.getCounter(REJECTION_COUNTERS[i]).increment(rejections[i]);
+
+        new TaskMetrics(context)
+                .add("split", context.getInputSplit().toString())
+                .add("elapsed_ms", (taskEnd - taskStart) / 1000000)
+                .add("read_ms", readNanos / 1000000)
+                .add("map_ms", mapNanos / 1000000)
+                .add("flush_ms", (taskEnd - cleanupStart) / 1000000)
+                .add("rows", rows)
+                .add("rows_malformed", rejections[CsvKeyFinder.Rejection.MALFORMED.ordinal()])
+                .add("rows_blank_key", rejections[CsvKeyFinder.Rejection.BLANK.ordinal()])
+                .add("rows_short_key", rejections[CsvKeyFinder.Rejection.SHORT.ordinal()])
+                .add("keys_counted", keysCounted)
+                .add("records_written", recordsWritten)
+                .add("key_bytes_written", keyBytesWritten)
+                .write(context);
+    }
+
+    /**
+     * This function is called after the last call to map() is made.  Writes out whatever is left in the in-mapper
+     * map, or the summary in approximate mode.
+     *
+     * @param context (Context) - The context to write the output to
+     */
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        if (summary != null) {
+            context.write(NullWritable.get(), summary);
+            recordsWritten++;
+        }
+        if (counts != null)
+            flush(context);
+        if (dictionary != null) {
+            if (keysWritten != null)
+                writeDictionary(keysWritten);
+            dictionary.close();
+        }
+    }
+
+    private void flush(final Context context) throws IOException, InterruptedException {
+        context.getCounter(Counters.IN_MEMORY_FLUSHES).increment(1);
+        counts.forEach(new KeyCountVisitor() {
+            public void visit(byte[] bytes, int start, int length, int count)
+                    throws IOException, InterruptedException {
+                outCount.set(count);
+                write(bytes, start, length, outCount, context);
+            }
+        });
+        if (dictionary != null)
+            writeDictionary(counts);
+        counts.clear();
+    }
+
+    /**
+     * Writes <key, count> to the Context, or <id, count> when interning keys.
+     */
+    private void write(byte[] bytes, int start, int length, IntWritable count, Context context)
+            throws IOException, InterruptedException {
+        if (dictionary == null) {
+            outKey.set(bytes, start, length);
+            context.write(outKey, count);
+            keyBytesWritten += length;
+        } else {
+            outId.set(KeyInterning.id(bytes, start, length));
+            context.write(outId, count);
+            keyBytesWritten += 8;
+        }
+        recordsWritten++;
+    }
+
+    /**
+     * Writes an <id, key> pair to the dictionary for every key in keys.
+     */
+    private void writeDictionary(ByteKeyCountMap keys) throws IOException, InterruptedException {
+        keys.forEach(new KeyCountVisitor() {
+            public void visit(byte[] bytes, int start, int length, int count)
+                    throws IOException, InterruptedException {
+                outId.set(KeyInterning.id(bytes, start, length));
+                outKey.set(bytes, start, length);
+                dictionary.write(KeyInterning.DICTIONARY, outId, outKey);
+            }
+        });
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * A quote-aware field scanner that works directly on the raw bytes of a csv row (the byte array backing the Text
+ * object handed to a mapper).  Instead of splitting the row into a String[] and gluing quoted fields that contain
+ * commas back together, scan() walks the bytes once and records where each column's value starts and how long it is.
+ * <p>
+ * Nothing is decoded to a String and nothing is allocated per row: the offset/length arrays are created once and
+ * reused for every row, so a single scanner should be kept per mapper.
+ * <p>
+ * For quoted fields the reported offset/length exclude the surrounding quotes.  Escaped quotes ("") inside a quoted
+ * field are skipped over while looking for the closing quote, but are left in place in the reported value, which is
+ * how the old split(",") based helpers returned them as well.
+ */
+public class CsvFieldScanner {
+
+    private static final byte QUOTE = '"';
+    private static final byte COMMA = ',';
+
+    private final int[] starts;
+    private final int[] lengths;
+    private final boolean[] quoted;
+    private byte[] bytes;
+    private int columns;
+
+    /**
+     * @param maxColumns (int) - The largest number of columns that will ever be requested from scan()
+     */
+    public CsvFieldScanner(int maxColumns) {
+        starts = new int[maxColumns];
+        lengths = new int[maxColumns];
+        quoted = new boolean[maxColumns];
+    }
+
+    /**
+     * Scans the first columnsNeeded columns of a csv row.  Scanning stops as soon as the last needed column has been
+     * found, so the rest of the row is never looked at.
+     *
+     * @param bytes         (byte[]) - The bytes of the row (Text.getBytes())
+     * @param length        (int) - Number of valid bytes in bytes[] (Text.getLength())
+     * @param columnsNeeded (int) - How many columns, counting from column 0, the caller is interested in
+     * @return Returns the number of columns found, which is less than columnsNeeded if the row was too short.
+     * Returns -1 if a quoted field was never closed, meaning the row was improperly formatted.
+     */
+    public int scan(byte[] bytes, int length, int columnsNeeded) {
+        return scan(bytes, 0, length, columnsNeeded);
+    }
+
+    /**
+     * Scans a row that starts at offset in bytes[], such as a line of a larger buffer.  The column offsets are then
+     * offsets in bytes[], not in the row.
+     *
+     * @param bytes         (byte[]) - Array containing the row
+     * @param offset        (int) - Offset of the row in bytes[]
+     * @param length        (int) - Length of the row
+     * @param columnsNeeded (int) - How many columns, counting from column 0, the caller is interested in
+     * @return Returns the number of columns found, or -1 if the row was improperly formatted, see above
+     */
+    public int scan(byte[] bytes, int offset, int length, int columnsNeeded) {
+        this.bytes = bytes;
+        int column = 0;
+        int pos = offset;
+        int rowEnd = offset + length;
+
+        while (column < columnsNeeded) {
+            if (pos < rowEnd && bytes[pos] == QUOTE) {
+                int end = pos + 1;
+                // Find the closing quote, stepping over escaped ("") quotes
+                while (true) {
+                    if (end >= rowEnd) {
+                        columns = 0;
+                        return -1; // Reached end of row inside a quoted field, row was incorrectly formatted
+                    }
+                    if (bytes[end] == QUOTE) {
+                        if (end + 1 < rowEnd && bytes[end + 1] == QUOTE)
+                            end += 2;
+                        else
+                            break;
+                    } else
+                        end++;
+                }
+                starts[column] = pos + 1;
+                lengths[column] = end - pos - 1;
+                quoted[column] = true;
+                pos = end + 1;
+                // Anything between the closing quote and the next comma is not part of the value
+                while (pos < rowEnd && bytes[pos] != COMMA)
+                    pos++;
+            } else {
+                int start = pos;
+                while (pos < rowEnd && bytes[pos] != COMMA)
+                    pos++;
+                starts[column] = start;
+                lengths[column] = pos - start;
+                quoted[column] = false;
+            }
+            column++;
+
+            if (pos >= rowEnd) // No comma after this field, it was the last column of the row
+                break;
+            pos++; // Step over the comma
+        }
+        columns = column;
+        return column;
+    }
+
+    /**
+     * @return Returns the number of columns found by the last call to scan()
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * @param column (int) - Column index
+     * @return Returns the offset into the scanned byte array of the column's value (after the opening quote)
+     */
+    public int start(int column) {
+        return starts[column];
+    }
+
+    /**
+     * @param column (int) - Column index
+     * @return Returns the length in bytes of the column's value, not counting surrounding quotes
+     */
+    public int length(int column) {
+        return lengths[column];
+    }
+
+    /**
+     * Columns of the csv that are Strings are written as "Column value", while blank values are written as a bare NA.
+     *
+     * @param column (int) - Column index
+     * @return Returns true if the column's value was surrounded by quotes
+     */
+    public boolean isQuoted(int column) {
+        return quoted[column];
+    }
+
+    /**
+     * Byte-wise equality test on a column's value.
+     *
+     * @param column (int) - Column index
+     * @param value  (byte[]) - The ASCII bytes the value has to be equal to
+     * @return Returns true if the column's value is equal to value
+     */
+    public boolean valueEquals(int column, byte[] value) {
+        return lengths[column] == value.length && startsWith(column, value);
+    }
+
+    /**
+     * Byte-wise prefix test on a column's value, used for things like the CASE_STATUS check so that the column does
+     * not have to be turned into a String first.
+     *
+     * @param column (int) - Column index
+     * @param prefix (byte[]) - The ASCII bytes the value has to begin with
+     * @return Returns true if the column's value starts with prefix
+     */
+    public boolean startsWith(int column, byte[] prefix) {
+        if (lengths[column] < prefix.length)
+            return false;
+        int start = starts[column];
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[start + i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+}
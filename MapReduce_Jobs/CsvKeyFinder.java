@@ -0,0 +1,103 @@
+/**
+ * Finds the key a ranking job counts in a csv row: the value of one String column, with blank (NA) values and 1
+ * letter values discarded as bad data.  Shared by the jobs' mappers and LocalRunner, so that both count exactly the
+ * same keys.
+ * <p>
+ * The row is scanned in place by a CsvFieldScanner, which handles values that contain commas, and the key is handed
+ * out as an offset/length pair into the row's bytes.
+ */
+public class CsvKeyFinder {
+
+    /**
+     * Why find() discarded a row
+     */
+    public enum Rejection {
+        MALFORMED, // Improperly formatted (unbalanced quotes) or short row, without the key column
+        BLANK,     // Blank (unquoted NA) key
+        SHORT      // 1 letter key
+    }
+
+    private final CsvFieldScanner scanner;
+    private final int column;
+    private final int columnsToScan;
+    private Rejection rejection;
+
+    /**
+     * @param column (int) - Column index of the key (H1bColumns)
+     */
+    public CsvKeyFinder(int column) {
+        this(column, column + 1);
+    }
+
+    /**
+     * @param column        (int) - Column index of the key (H1bColumns)
+     * @param columnsToScan (int) - Number of columns to scan, for callers that also read the columns after the key
+     *                      from scanner().  Rows are only required to have the key column.
+     */
+    public CsvKeyFinder(int column, int columnsToScan) {
+        this.scanner = new CsvFieldScanner(columnsToScan);
+        this.column = column;
+        this.columnsToScan = columnsToScan;
+    }
+
+    /**
+     * @param row    (byte[]) - The bytes of the row
+     * @param length (int) - Number of valid bytes in row[]
+     * @return Returns true if the row has a key to count, see start() and length(), false with the reason in
+     * rejection() otherwise
+     */
+    public boolean find(byte[] row, int length) {
+        return find(row, 0, length);
+    }
+
+    /**
+     * @param bytes  (byte[]) - Array containing the row, such as a line of a larger buffer
+     * @param offset (int) - Offset of the row in bytes[], start() is an offset in bytes[] as well
+     * @param length (int) - Length of the row
+     * @return Returns true if the row has a key to count, see find(byte[], int)
+     */
+    public boolean find(byte[] bytes, int offset, int length) {
+        if (scanner.scan(bytes, offset, length, columnsToScan) <= column) {
+            rejection = Rejection.MALFORMED;
+            return false;
+        }
+        // Blank values are an unquoted NA in the dataset, and keys should be more than 1 letter
+        if (!scanner.isQuoted(column)) {
+            rejection = Rejection.BLANK;
+            return false;
+        }
+        if (scanner.length(column) <= 1) {
+            rejection = Rejection.SHORT;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Returns why the last call to find() returned false
+     */
+    public Rejection rejection() {
+        return rejection;
+    }
+
+    /**
+     * @return Returns the offset of the key found by the last call to find() in the row's bytes
+     */
+    public int start() {
+        return scanner.start(column);
+    }
+
+    /**
+     * @return Returns the length of the key found by the last call to find()
+     */
+    public int length() {
+        return scanner.length(column);
+    }
+
+    /**
+     * @return Returns the scanner holding the columns of the row last passed to find()
+     */
+    public CsvFieldScanner scanner() {
+        return scanner;
+    }
+}
@@ -0,0 +1,164 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+
+import java.io.IOException;
+
+/**
+ * RecordReader for csv files whose quoted fields may contain line breaks.  The split's lines are read with a
+ * LineRecordReader, so the input splits exactly as it does for TextInputFormat (including bzip2 input, whose splits
+ * start on compressed block boundaries), and a line that ends inside a quoted field is joined with the lines after it,
+ * separated by '\n', until the field is closed.
+ * <p>
+ * A row belongs to the split its first line belongs to.  When a row is still open at the end of the split, the rest
+ * of it is read with a second LineRecordReader over the following split, which skips the same partial line and so
+ * sees the same lines as that split's own reader.  That reader in turn skips every line before the first one that
+ * starts a row, see isRowStart(): every row of h1b_kaggle.csv starts with its quoted row number ("123",), so those
+ * lines are either the end of a row owned by the previous split, or are dropped by both splits.
+ * <p>
+ * Lines that neither start a row nor continue an open quoted field are dropped and counted in LINES_DROPPED.
+ * <p>
+ * Configuration:
+ * h1b.csv.multiline (boolean, default false) - Read rows with this reader in FilteringTextInputFormat
+ */
+public class CsvRowRecordReader extends RecordReader<LongWritable, Text> {
+
+    public static final String MULTILINE = "h1b.csv.multiline";
+
+    public enum Counters {
+        ROWS_JOINED,
+        LINES_DROPPED
+    }
+
+    private static final byte[] LINE_BREAK = {'\n'};
+
+    private final LineRecordReader lines = new LineRecordReader();
+    private LineRecordReader nextSplitLines; // Opened when a row is still open at the end of the split
+    private FileSplit split;
+    private TaskAttemptContext context;
+    private final LongWritable key = new LongWritable();
+    private final Text value = new Text();
+    private boolean lineRead;     // The current line of lines has been read but not used yet
+    private boolean atSplitStart; // No row has been started yet
+    private Counter rowsJoined;
+    private Counter linesDropped;
+
+    /**
+     * @param conf (Configuration) - Job Configuration
+     * @return Returns true if the csv rows may span several lines
+     */
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getBoolean(MULTILINE, false);
+    }
+
+    public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+        lines.initialize(split, context);
+        this.split = (FileSplit) split;
+        this.context = context;
+        atSplitStart = true;
+        rowsJoined = context.getCounter(Counters.ROWS_JOINED);
+        linesDropped = context.getCounter(Counters.LINES_DROPPED);
+    }
+
+    public boolean nextKeyValue() throws IOException, InterruptedException {
+        while (lineRead || lines.nextKeyValue()) {
+            lineRead = false;
+            Text line = lines.getCurrentValue();
+            if (!isRowStart(line.getBytes(), line.getLength())) {
+                if (!atSplitStart) // The lines before the first row may belong to a row of the previous split
+                    linesDropped.increment(1);
+                continue;
+            }
+            atSplitStart = false;
+            key.set(lines.getCurrentKey().get());
+            value.set(line);
+            boolean inQuotes = (countQuotes(line) & 1) == 1;
+            if (inQuotes)
+                rowsJoined.increment(1);
+            while (inQuotes) {
+                Text next = nextLine();
+                if (next == null)
+                    break;
+                if (isRowStart(next.getBytes(), next.getLength())) {
+                    // Unterminated quote, the row ends here.  A row start read past the split belongs to the next one.
+                    lineRead = nextSplitLines == null;
+                    break;
+                }
+                value.append(LINE_BREAK, 0, 1);
+                value.append(next.getBytes(), 0, next.getLength());
+                inQuotes ^= (countQuotes(next) & 1) == 1;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return Returns the next line of the split, then the lines of the following split, or null at the end of file
+     */
+    private Text nextLine() throws IOException, InterruptedException {
+        if (nextSplitLines == null) {
+            if (lines.nextKeyValue())
+                return lines.getCurrentValue();
+            long end = split.getStart() + split.getLength();
+            Path file = split.getPath();
+            long fileLength = file.getFileSystem(context.getConfiguration()).getFileStatus(file).getLen();
+            if (end >= fileLength)
+                return null;
+            nextSplitLines = new LineRecordReader();
+            nextSplitLines.initialize(new FileSplit(file, end, fileLength - end, null), context);
+        }
+        return nextSplitLines.nextKeyValue() ? nextSplitLines.getCurrentValue() : null;
+    }
+
+    /**
+     * A row starts with its quoted row number, or with an empty quoted field for the header: "123", or "",
+     *
+     * @param bytes  (byte[]) - The line
+     * @param length (int) - Length of the line
+     * @return Returns true if the line is the first line of a row
+     */
+    public static boolean isRowStart(byte[] bytes, int length) {
+        if (length < 3 || bytes[0] != '"')
+            return false;
+        int i = 1;
+        while (i < length && bytes[i] >= '0' && bytes[i] <= '9')
+            i++;
+        return i + 1 < length && bytes[i] == '"' && bytes[i + 1] == ',';
+    }
+
+    private static int countQuotes(Text line) {
+        byte[] bytes = line.getBytes();
+        int quotes = 0;
+        for (int i = 0; i < line.getLength(); i++) {
+            if (bytes[i] == '"')
+                quotes++;
+        }
+        return quotes;
+    }
+
+    public LongWritable getCurrentKey() {
+        return key;
+    }
+
+    public Text getCurrentValue() {
+        return value;
+    }
+
+    public float getProgress() throws IOException, InterruptedException {
+        return lines.getProgress();
+    }
+
+    public void close() throws IOException {
+        lines.close();
+        if (nextSplitLines != null)
+            nextSplitLines.close();
+    }
+}
@@ -0,0 +1,228 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds the pre-aggregated cube that CubeServer answers queries from, so that a new slice of the data (another
+ * employer, year or status) does not need a job of its own.
+ * <p>
+ * Every application is counted in the cell of its employer, job title, status, year and worksite.  A cell holds the
+ * number of applications, the sum of their wages and the coordinates of the worksite (see CubeCell), and the cube is
+ * written as a block compressed SequenceFile of <cell key, CubeCell> pairs.  The cell key is the five values joined by
+ * SEPARATOR, in the order of DIMENSIONS.
+ * <p>
+ * The values are kept the way the ranking jobs count them: blank (NA) or 1 letter employer names, job titles and
+ * worksites, and years that are not a number, are stored as an empty value.  Those rows are still in the cube, so
+ * that totals over the other dimensions stay right, but CubeServer never ranks an empty value.
+ * <p>
+ * The mappers merge the cells of their rows in memory and write them out at the end of the task, or whenever
+ * h1b.cube.mapper.cells cells are held.  Rows can be filtered in the record reader with the h1b.filter.* options, see
+ * RowFilter.
+ * <p>
+ * Configuration:
+ * h1b.cube.mapper.cells (int, default 100000) - Number of cells a mapper holds before writing them out
+ * h1b.cube.reducers (int, default 1) - Number of reducers, and of cube files
+ */
+public class CubeBuilder {
+
+    public static final String[] DIMENSIONS = {"employer", "title", "status", "year", "worksite"};
+    public static final int EMPLOYER = 0;
+    public static final int TITLE = 1;
+    public static final int STATUS = 2;
+    public static final int YEAR = 3;
+    public static final int WORKSITE = 4;
+
+    public static final byte SEPARATOR = 0x1F; // ASCII unit separator, never part of a csv value
+
+    public static final String MAPPER_CELLS = "h1b.cube.mapper.cells";
+    public static final String REDUCERS = "h1b.cube.reducers";
+
+    public enum Counters {
+        ROWS_MALFORMED,
+        IN_MEMORY_FLUSHES
+    }
+
+    public static class CellMapper extends Mapper<Object, Text, Text, CubeCell> {
+
+        private static final byte[] NA = "NA".getBytes(StandardCharsets.US_ASCII);
+        private final CsvFieldScanner scanner = new CsvFieldScanner(H1bColumns.LAT + 1);
+        private final Map<Text, CubeCell> cells = new HashMap<>();
+        private final Text cellKey = new Text();
+        private byte[] keyBytes = new byte[256];
+        private int keyLength;
+        private int maxCells;
+
+        protected void setup(Context context) {
+            maxCells = context.getConfiguration().getInt(MAPPER_CELLS, 100000);
+        }
+
+        /**
+         * Adds the row to its cell.  Rows too short to have a WORKSITE column are discarded.
+         *
+         * @param key     (Object) - Input key.  Not used in this function.
+         * @param value   (Text) - value is the Text object wrapping a row in the dataset csv
+         * @param context (Context) - The Context that we will be writing map output <key, value> pairs to
+         */
+        public void map(Object key, Text value, Context context)
+                throws IOException, InterruptedException {
+            byte[] row = value.getBytes();
+            int columns = scanner.scan(row, value.getLength(), H1bColumns.LAT + 1);
+            if (columns <= H1bColumns.WORKSITE) {
+                context.getCounter(Counters.ROWS_MALFORMED).increment(1);
+                return;
+            }
+
+            keyLength = 0;
+            appendName(row, H1bColumns.EMPLOYER_NAME);
+            appendName(row, H1bColumns.JOB_TITLE);
+            append(row, H1bColumns.CASE_STATUS, scanner.isQuoted(H1bColumns.CASE_STATUS));
+            append(row, H1bColumns.YEAR, !scanner.isQuoted(H1bColumns.YEAR) && isNumber(row, H1bColumns.YEAR));
+            appendName(row, H1bColumns.WORKSITE);
+            cellKey.set(keyBytes, 0, keyLength - 1); // Without the last separator
+
+            CubeCell cell = cells.get(cellKey);
+            if (cell == null) {
+                if (cells.size() >= maxCells)
+                    flush(context);
+                cell = new CubeCell();
+                // Every row of a worksite has the same coordinates, so they are only parsed for a new cell
+                if (columns > H1bColumns.LAT)
+                    cell.setLocation(parseCoordinate(row, H1bColumns.LAT), parseCoordinate(row, H1bColumns.LON));
+                cells.put(new Text(cellKey), cell);
+            }
+            cell.add(H1bReport.parseWage(row, scanner.start(H1bColumns.PREVAILING_WAGE),
+                    scanner.length(H1bColumns.PREVAILING_WAGE)));
+        }
+
+        /**
+         * Writes out the cells left in memory.
+         *
+         * @param context (Context) - The context to write the output to
+         */
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flush(context);
+        }
+
+        private void flush(Context context) throws IOException, InterruptedException {
+            context.getCounter(Counters.IN_MEMORY_FLUSHES).increment(1);
+            for (Map.Entry<Text, CubeCell> cell : cells.entrySet())
+                context.write(cell.getKey(), cell.getValue());
+            cells.clear();
+        }
+
+        /**
+         * Appends an employer name, job title or worksite, which are left empty when blank or 1 letter long, like the
+         * ranking jobs discard them.
+         */
+        private void appendName(byte[] row, int column) {
+            append(row, column, scanner.isQuoted(column) && scanner.length(column) > 1);
+        }
+
+        /**
+         * Appends the value of column to the cell key if keep is true, an empty value otherwise, then a separator.
+         */
+        private void append(byte[] row, int column, boolean keep) {
+            int length = keep ? scanner.length(column) : 0;
+            if (keyBytes.length < keyLength + length + 1) {
+                byte[] larger = new byte[2 * (keyLength + length + 1)];
+                System.arraycopy(keyBytes, 0, larger, 0, keyLength);
+                keyBytes = larger;
+            }
+            System.arraycopy(row, scanner.start(column), keyBytes, keyLength, length);
+            keyLength += length;
+            keyBytes[keyLength++] = SEPARATOR;
+        }
+
+        /**
+         * @return Returns true if the column only holds digits
+         */
+        private boolean isNumber(byte[] row, int column) {
+            int start = scanner.start(column);
+            int length = scanner.length(column);
+            if (length == 0)
+                return false;
+            for (int i = start; i < start + length; i++) {
+                if (row[i] < '0' || row[i] > '9')
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * lat and lon are bare decimal numbers, or NA when the worksite could not be located.
+         *
+         * @return Returns the coordinate, or NaN if it is blank or not a number
+         */
+        private double parseCoordinate(byte[] row, int column) {
+            if (scanner.isQuoted(column) || scanner.length(column) == 0 || scanner.valueEquals(column, NA))
+                return Double.NaN;
+            try {
+                return Double.parseDouble(new String(row, scanner.start(column), scanner.length(column),
+                        StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * Sums the partial cells written by the mappers.  Also used as the combiner, for the cells of early flushes.
+     */
+    public static class CellReducer extends Reducer<Text, CubeCell, Text, CubeCell> {
+
+        private final CubeCell sum = new CubeCell();
+
+        /**
+         * @param key     (Text) - The cell key
+         * @param values  (Iterable<CubeCell>) - The partial cells of the mappers
+         * @param context (Context) - The context to write the cell to
+         */
+        public void reduce(Text key, Iterable<CubeCell> values, Context context)
+                throws IOException, InterruptedException {
+            sum.clear();
+            for (CubeCell cell : values)
+                sum.add(cell);
+            context.write(key, sum);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        // Picks up -D options such as -D h1b.filter.year.min=2015 or -D h1b.cube.reducers=4
+        String[] paths = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (paths.length != 2) {
+            System.err.println("Usage: CubeBuilder [-D <option>=<value>...] <input> <cube directory>");
+            System.exit(2);
+        }
+
+        Job job = Job.getInstance(conf, "H-1B Cube");
+        job.setJarByClass(CubeBuilder.class);
+        job.setMapperClass(CellMapper.class);
+        if (RowFilter.isConfigured(conf) || CsvRowRecordReader.isEnabled(conf))
+            job.setInputFormatClass(FilteringTextInputFormat.class);
+        job.setCombinerClass(CellReducer.class);
+        job.setReducerClass(CellReducer.class);
+        job.setNumReduceTasks(conf.getInt(REDUCERS, 1));
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(CubeCell.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        FileOutputFormat.setCompressOutput(job, true);
+        SequenceFileOutputFormat.setOutputCompressionType(job, SequenceFile.CompressionType.BLOCK);
+        FileInputFormat.addInputPath(job, new Path(paths[0]));
+        FileOutputFormat.setOutputPath(job, new Path(paths[1]));
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
@@ -0,0 +1,106 @@
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The measures of one cell of the aggregate cube built by CubeBuilder: how many applications share the cell's
+ * employer, job title, status, year and worksite, the sum of their PREVAILING_WAGE (over the applications that have
+ * one) and the coordinates of the worksite.
+ * <p>
+ * Cells are summed with add(), so partial cells from the mappers can be merged in any order.
+ */
+public class CubeCell implements Writable {
+
+    private long count;
+    private long wageSum;
+    private long wageCount;
+    private double lat = Double.NaN;
+    private double lon = Double.NaN;
+
+    /**
+     * Counts one more application in the cell.
+     *
+     * @param wage (long) - Its wage in whole dollars, or -1 if it has none
+     */
+    public void add(long wage) {
+        count++;
+        if (wage >= 0) {
+            wageSum += wage;
+            wageCount++;
+        }
+    }
+
+    /**
+     * @param other (CubeCell) - Partial cell to add to this one
+     */
+    public void add(CubeCell other) {
+        count += other.count;
+        wageSum += other.wageSum;
+        wageCount += other.wageCount;
+        if (Double.isNaN(lat))
+            setLocation(other.lat, other.lon);
+    }
+
+    /**
+     * @param lat (double) - Latitude of the worksite, NaN if unknown
+     * @param lon (double) - Longitude of the worksite, NaN if unknown
+     */
+    public void setLocation(double lat, double lon) {
+        this.lat = lat;
+        this.lon = lon;
+    }
+
+    public void clear() {
+        count = 0;
+        wageSum = 0;
+        wageCount = 0;
+        lat = Double.NaN;
+        lon = Double.NaN;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long wageSum() {
+        return wageSum;
+    }
+
+    /**
+     * @return Returns the number of applications in the cell that have a wage
+     */
+    public long wageCount() {
+        return wageCount;
+    }
+
+    public double lat() {
+        return lat;
+    }
+
+    public double lon() {
+        return lon;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVLong(out, count);
+        WritableUtils.writeVLong(out, wageSum);
+        WritableUtils.writeVLong(out, wageCount);
+        out.writeDouble(lat);
+        out.writeDouble(lon);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        count = WritableUtils.readVLong(in);
+        wageSum = WritableUtils.readVLong(in);
+        wageCount = WritableUtils.readVLong(in);
+        lat = in.readDouble();
+        lon = in.readDouble();
+    }
+
+    public String toString() {
+        return count + "\t" + wageSum + "\t" + wageCount + "\t" + lat + "\t" + lon;
+    }
+}
@@ -0,0 +1,671 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP server that answers Top K and filter queries from the cube built by CubeBuilder, so the globe can ask
+ * for the slice it shows instead of loading files exported by hand after every job.
+ * <p>
+ * The whole cube is loaded into memory when the server starts.  Each dimension's values are dictionary encoded, and
+ * the cells are kept as one int array of value ids per dimension plus long arrays of counts and wage sums.  Every
+ * value also has the sorted ids of the cells holding it, so a filtered query only visits the cells of the filter
+ * values that cover the fewest cells, and checks the other filters on those.  Only unfiltered queries scan every
+ * cell.  Answers are kept in an LRU cache of h1b.cube.cache.entries entries, keyed by
+ * the path and the sorted query parameters, URL encoded.  The cube never changes while the server runs, so nothing
+ * has to be evicted from the cache other than by age.
+ * <p>
+ * Every path takes filters on the dimensions, e.g. year=2016&status=CERTIFIED.  A dimension can be given several
+ * times to allow any of the values, e.g. status=CERTIFIED&status=CERTIFIED-WITHDRAWN.  Values must match exactly.
+ * <p>
+ * GET /topk?dim=employer&k=10&[filters] - The values of dim with the K highest application counts, with the same
+ * ranking rules as the ranking jobs (K counts distinct counts, tied values share a rank), and their average wage.  K
+ * is capped at the number of distinct values of dim.
+ * <p>
+ * GET /count?[filters] - Number of applications, and their average wage
+ * <p>
+ * GET /points?dim=employer&k=10&points=50&[filters] - For each value of the Top K of dim, its busiest worksites, in the
+ * [[name, [lat, lon, magnitude, ...]], ...] layout of globe/data/emp_data.json.  magnitude is the worksite's count over
+ * the count of the value's busiest worksite.  Every value gets exactly points points, as globe.js morphs between
+ * them, the ones past a value's last worksite have a magnitude of 0.  points is at most MAX_POINTS.
+ * <p>
+ * GET /stats - Size of the cube and of the cache, and the cache hits and misses
+ * <p>
+ * Answers are JSON and allow any origin, so the globe can be served from another port.  Bad requests are answered with
+ * 400 and {"error": "..."}, and requests that fail for any other reason with 500.
+ * <p>
+ * Configuration:
+ * h1b.cube.host (String, default localhost) - Address to listen on
+ * h1b.cube.port (int, default 8090) - Port to listen on
+ * h1b.cube.threads (int, default 4) - Number of threads answering requests
+ * h1b.cube.cache.entries (int, default 1000) - Number of answers kept in the cache
+ */
+public class CubeServer {
+
+    public static final String HOST = "h1b.cube.host";
+    public static final String PORT = "h1b.cube.port";
+    public static final String THREADS = "h1b.cube.threads";
+    public static final String CACHE_ENTRIES = "h1b.cube.cache.entries";
+
+    public static final int MAX_POINTS = 10000;
+
+    private static final int DIMENSIONS = CubeBuilder.DIMENSIONS.length;
+
+    // Dictionary of each dimension, value id -> value
+    private final List<List<String>> values = new ArrayList<>();
+    private final List<Map<String, Integer>> ids = new ArrayList<>();
+    private byte[][][] valueBytes; // UTF-8 bytes of each value, as TopKRanking ranks them
+
+    // Columns of the cells
+    private int cells;
+    private int[][] cellValues = new int[DIMENSIONS][1024];
+    private long[] counts = new long[1024];
+    private long[] wageSums = new long[1024];
+    private long[] wageCounts = new long[1024];
+
+    // Index of the cells, cellsByValue[dimension][value id] holds the ids of the cells with that value, ascending
+    private int[][][] cellsByValue;
+
+    // Coordinates of each worksite, by value id
+    private double[] lats = new double[1024];
+    private double[] lons = new double[1024];
+
+    private final ResultCache cache;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param cacheEntries (int) - Number of answers to keep in the cache
+     */
+    public CubeServer(int cacheEntries) {
+        cache = new ResultCache(cacheEntries);
+        for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+            values.add(new ArrayList<String>());
+            ids.add(new HashMap<String, Integer>());
+        }
+    }
+
+    /**
+     * Least recently used answers are evicted first.
+     */
+    private static class ResultCache extends LinkedHashMap<String, byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        ResultCache(int maxEntries) {
+            super(16, 0.75f, true); // Access order
+            this.maxEntries = maxEntries;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    /**
+     * Filters on the dimensions of a query.  allowed[dimension] and allowedIds[dimension] are null when the dimension
+     * is not filtered.
+     */
+    private static class Filters {
+        final boolean[][] allowed = new boolean[DIMENSIONS][];
+        final int[][] allowedIds = new int[DIMENSIONS][]; // The ids set in allowed[dimension]
+        boolean none; // A filter only names values that are not in the cube, so no cell matches
+    }
+
+    /**
+     * Loads every part file of a cube written by CubeBuilder.
+     *
+     * @param conf (Configuration) - Configuration of the file system the cube is on
+     * @param cube (Path) - The cube directory
+     */
+    public void load(Configuration conf, Path cube) throws IOException {
+        FileSystem fs = cube.getFileSystem(conf);
+        Text key = new Text();
+        CubeCell cell = new CubeCell();
+        for (FileStatus part : fs.listStatus(cube, path -> path.getName().startsWith("part-"))) {
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(part.getPath()))) {
+                while (reader.next(key, cell))
+                    addCell(key, cell);
+            }
+        }
+        valueBytes = new byte[DIMENSIONS][][];
+        for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+            List<String> dictionary = values.get(dimension);
+            valueBytes[dimension] = new byte[dictionary.size()][];
+            for (int id = 0; id < dictionary.size(); id++)
+                valueBytes[dimension][id] = dictionary.get(id).getBytes(StandardCharsets.UTF_8);
+        }
+        indexCells();
+    }
+
+    /**
+     * Builds cellsByValue, with the cells of every value in ascending order.
+     */
+    private void indexCells() {
+        cellsByValue = new int[DIMENSIONS][][];
+        for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+            int[] column = cellValues[dimension];
+            int[] sizes = new int[values.get(dimension).size()];
+            for (int cell = 0; cell < cells; cell++)
+                sizes[column[cell]]++;
+            int[][] index = new int[sizes.length][];
+            for (int id = 0; id < sizes.length; id++) {
+                index[id] = new int[sizes[id]];
+                sizes[id] = 0;
+            }
+            for (int cell = 0; cell < cells; cell++) {
+                int id = column[cell];
+                index[id][sizes[id]++] = cell;
+            }
+            cellsByValue[dimension] = index;
+        }
+    }
+
+    private void addCell(Text key, CubeCell cell) throws IOException {
+        if (cells == counts.length) {
+            int capacity = 2 * cells;
+            for (int dimension = 0; dimension < DIMENSIONS; dimension++)
+                cellValues[dimension] = Arrays.copyOf(cellValues[dimension], capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            wageSums = Arrays.copyOf(wageSums, capacity);
+            wageCounts = Arrays.copyOf(wageCounts, capacity);
+        }
+        byte[] bytes = key.getBytes();
+        int start = 0;
+        for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+            int end = start;
+            while (end < key.getLength() && bytes[end] != CubeBuilder.SEPARATOR)
+                end++;
+            if (dimension < DIMENSIONS - 1 && end == key.getLength())
+                throw new IOException("Not a cube cell key: " + key);
+            cellValues[dimension][cells] = valueId(dimension, Text.decode(bytes, start, end - start));
+            start = end + 1;
+        }
+        counts[cells] = cell.count();
+        wageSums[cells] = cell.wageSum();
+        wageCounts[cells] = cell.wageCount();
+        int worksite = cellValues[CubeBuilder.WORKSITE][cells];
+        if (Double.isNaN(lats[worksite])) {
+            lats[worksite] = cell.lat();
+            lons[worksite] = cell.lon();
+        }
+        cells++;
+    }
+
+    /**
+     * @return Returns the id of value in the dictionary of dimension, adding it if it is new
+     */
+    private int valueId(int dimension, String value) {
+        Integer id = ids.get(dimension).get(value);
+        if (id != null)
+            return id;
+        List<String> dictionary = values.get(dimension);
+        id = dictionary.size();
+        dictionary.add(value);
+        ids.get(dimension).put(value, id);
+        if (dimension == CubeBuilder.WORKSITE) {
+            if (id == lats.length) {
+                lats = Arrays.copyOf(lats, 2 * id);
+                lons = Arrays.copyOf(lons, 2 * id);
+            }
+            lats[id] = Double.NaN;
+            lons[id] = Double.NaN;
+        }
+        return id;
+    }
+
+    /**
+     * Answers a request, from the cache when the same request was answered before.
+     *
+     * @param path   (String) - The path of the request, e.g. /topk
+     * @param params (Map<String, List<String>>) - The query parameters
+     * @return Returns the JSON answer, or null if path is unknown
+     * @throws IllegalArgumentException if a parameter is missing or invalid
+     */
+    public byte[] answer(String path, Map<String, List<String>> params) {
+        if (path.equals("/stats"))
+            return stats().getBytes(StandardCharsets.UTF_8);
+        StringBuilder key = new StringBuilder(path);
+        for (Map.Entry<String, List<String>> param : new TreeMap<>(params).entrySet()) {
+            List<String> sorted = new ArrayList<>(param.getValue());
+            Collections.sort(sorted);
+            for (String value : sorted) {
+                // Encoded, so that a value holding & or = cannot make two different queries share a key
+                key.append('&').append(encode(param.getKey())).append('=').append(encode(value));
+            }
+        }
+        String cacheKey = key.toString();
+        synchronized (cache) {
+            byte[] cached = cache.get(cacheKey);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+        }
+
+        String json;
+        if (path.equals("/topk"))
+            json = topK(params);
+        else if (path.equals("/count"))
+            json = count(params);
+        else if (path.equals("/points"))
+            json = points(params);
+        else
+            return null;
+        byte[] answer = json.getBytes(StandardCharsets.UTF_8);
+        synchronized (cache) {
+            misses++;
+            cache.put(cacheKey, answer);
+        }
+        return answer;
+    }
+
+    private String topK(Map<String, List<String>> params) {
+        int dimension = dimension(params, null);
+        int k = k(params, dimension);
+        Filters filters = filters(params, "dim", "k");
+        long[] valueCounts = new long[values.get(dimension).size()];
+        long[] valueWageSums = new long[valueCounts.length];
+        long[] valueWageCounts = new long[valueCounts.length];
+        long total = 0;
+        int[] column = cellValues[dimension];
+        int[] candidates = candidates(filters);
+        int size = candidates == null ? cells : candidates.length;
+        for (int i = 0; i < size; i++) {
+            int cell = candidates == null ? i : candidates[i];
+            if (!matches(filters, cell))
+                continue;
+            int id = column[cell];
+            valueCounts[id] += counts[cell];
+            valueWageSums[id] += wageSums[cell];
+            valueWageCounts[id] += wageCounts[cell];
+            total += counts[cell];
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"dim\":").append(Json.quote(CubeBuilder.DIMENSIONS[dimension])).append(",\"k\":").append(k)
+                .append(",\"count\":").append(total).append(",\"rows\":[");
+        for (int id : rank(dimension, k, valueCounts)) {
+            if (json.charAt(json.length() - 1) != '[')
+                json.append(',');
+            json.append("{\"value\":").append(Json.quote(values.get(dimension).get(id)))
+                    .append(",\"count\":").append(valueCounts[id])
+                    .append(",\"average_wage\":").append(average(valueWageSums[id], valueWageCounts[id])).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private String count(Map<String, List<String>> params) {
+        Filters filters = filters(params);
+        long total = 0;
+        long wageSum = 0;
+        long wageCount = 0;
+        int[] candidates = candidates(filters);
+        int size = candidates == null ? cells : candidates.length;
+        for (int i = 0; i < size; i++) {
+            int cell = candidates == null ? i : candidates[i];
+            if (matches(filters, cell)) {
+                total += counts[cell];
+                wageSum += wageSums[cell];
+                wageCount += wageCounts[cell];
+            }
+        }
+        return "{\"count\":" + total + ",\"wage_count\":" + wageCount + ",\"average_wage\":"
+                + average(wageSum, wageCount) + "}";
+    }
+
+    private String points(Map<String, List<String>> params) {
+        int dimension = dimension(params, CubeBuilder.DIMENSIONS[CubeBuilder.EMPLOYER]);
+        int k = k(params, dimension);
+        int points = intParam(params, "points", 50, MAX_POINTS);
+        Filters filters = filters(params, "dim", "k", "points");
+        long[] valueCounts = new long[values.get(dimension).size()];
+        int[] candidates = candidates(filters);
+        int size = candidates == null ? cells : candidates.length;
+        for (int i = 0; i < size; i++) {
+            int cell = candidates == null ? i : candidates[i];
+            if (matches(filters, cell))
+                valueCounts[cellValues[dimension][cell]] += counts[cell];
+        }
+        List<Integer> ranked = rank(dimension, k, valueCounts);
+
+        // Count the worksites of every ranked value in a second pass, over the ranked values' cells or the filter's
+        // candidates, whichever are fewer
+        int[] series = new int[valueCounts.length];
+        Arrays.fill(series, -1);
+        List<Map<Integer, Long>> worksites = new ArrayList<>();
+        long rankedCells = 0;
+        for (int id : ranked) {
+            series[id] = worksites.size();
+            worksites.add(new HashMap<Integer, Long>());
+            rankedCells += cellsByValue[dimension][id].length;
+        }
+        if (candidates != null && candidates.length <= rankedCells) {
+            countWorksites(candidates, dimension, series, filters, worksites);
+        } else {
+            for (int id : ranked)
+                countWorksites(cellsByValue[dimension][id], dimension, series, filters, worksites);
+        }
+
+        List<String> worksiteNames = values.get(CubeBuilder.WORKSITE);
+        StringBuilder json = new StringBuilder("[");
+        for (int index = 0; index < ranked.size(); index++) {
+            List<Map.Entry<Integer, Long>> busiest = new ArrayList<>(worksites.get(index).entrySet());
+            // Tied worksites by name, as the ids depend on the order the cube files were loaded in
+            busiest.sort((a, b) -> b.getValue().equals(a.getValue())
+                    ? worksiteNames.get(a.getKey()).compareTo(worksiteNames.get(b.getKey()))
+                    : Long.compare(b.getValue(), a.getValue()));
+            if (index > 0)
+                json.append(',');
+            json.append('[').append(Json.quote(values.get(dimension).get(ranked.get(index)))).append(",[");
+            for (int point = 0; point < points; point++) {
+                if (point > 0)
+                    json.append(',');
+                if (busiest.isEmpty()) {
+                    json.append("0,0,0");
+                    continue;
+                }
+                // Past the value's last worksite, repeat it with a magnitude of 0
+                int worksite = busiest.get(Math.min(point, busiest.size() - 1)).getKey();
+                double magnitude = point < busiest.size()
+                        ? (double) busiest.get(point).getValue() / busiest.get(0).getValue() : 0;
+                json.append(lats[worksite]).append(',').append(lons[worksite]).append(',')
+                        .append(String.format("%.4f", magnitude));
+            }
+            json.append("]]");
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * Adds the count of every cell in cellIds that matches filters to its worksite, in the map of its ranked value.
+     *
+     * @param cellIds   (int[]) - The cells to count
+     * @param dimension (int) - The ranked dimension
+     * @param series    (int[]) - Index in worksites of each value id of dimension, -1 if the value was not ranked
+     * @param filters   (Filters) - The query's filters
+     * @param worksites (List<Map<Integer, Long>>) - Count of every worksite id, for each ranked value
+     */
+    private void countWorksites(int[] cellIds, int dimension, int[] series, Filters filters,
+                                List<Map<Integer, Long>> worksites) {
+        for (int cell : cellIds) {
+            int index = series[cellValues[dimension][cell]];
+            int worksite = cellValues[CubeBuilder.WORKSITE][cell];
+            if (index < 0 || Double.isNaN(lats[worksite]) || !matches(filters, cell))
+                continue;
+            Map<Integer, Long> counted = worksites.get(index);
+            Long count = counted.get(worksite);
+            counted.put(worksite, count == null ? counts[cell] : count + counts[cell]);
+        }
+    }
+
+    private String stats() {
+        StringBuilder json = new StringBuilder("{\"cells\":").append(cells).append(",\"values\":{");
+        for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+            if (dimension > 0)
+                json.append(',');
+            json.append(Json.quote(CubeBuilder.DIMENSIONS[dimension])).append(':').append(values.get(dimension).size());
+        }
+        synchronized (cache) {
+            json.append("},\"cache\":{\"entries\":").append(cache.size()).append(",\"hits\":").append(hits)
+                    .append(",\"misses\":").append(misses).append("}}");
+        }
+        return json.toString();
+    }
+
+    /**
+     * Ranks the values of a dimension by count with a TopKRanking, like the ranking jobs do.  Empty values are not
+     * ranked.
+     *
+     * @return Returns the ids of the ranked values, in descending order of count, tied values in byte order
+     */
+    private List<Integer> rank(final int dimension, int k, long[] valueCounts) {
+        TopKRanking ranking = new TopKRanking(k);
+        for (int id = 0; id < valueCounts.length; id++) {
+            byte[] bytes = valueBytes[dimension][id];
+            if (valueCounts[id] > 0 && bytes.length > 0)
+                ranking.offer((int) Math.min(valueCounts[id], Integer.MAX_VALUE), bytes, 0, bytes.length);
+        }
+        final List<Integer> ranked = new ArrayList<>();
+        try {
+            ranking.forEachDescending(new KeyCountVisitor() {
+                public void visit(byte[] bytes, int start, int length, int count) {
+                    ranked.add(ids.get(dimension).get(new String(bytes, start, length, StandardCharsets.UTF_8)));
+                }
+            });
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e); // The visitor does not throw
+        }
+        return ranked;
+    }
+
+    /**
+     * Picks the filtered dimension whose allowed values hold the fewest cells.  Every cell that matches filters is
+     * one of them, the other filters still have to be checked with matches().
+     *
+     * @return Returns the cells of the allowed values of that dimension in ascending order, or null if no dimension
+     * is filtered and every cell has to be visited
+     */
+    private int[] candidates(Filters filters) {
+        if (filters.none)
+            return new int[0];
+        int best = -1;
+        int bestSize = Integer.MAX_VALUE;
+        for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+            if (filters.allowedIds[dimension] == null)
+                continue;
+            int size = 0;
+            for (int id : filters.allowedIds[dimension])
+                size += cellsByValue[dimension][id].length;
+            if (size < bestSize) {
+                best = dimension;
+                bestSize = size;
+            }
+        }
+        if (best < 0)
+            return null;
+        int[] allowedIds = filters.allowedIds[best];
+        if (allowedIds.length == 1)
+            return cellsByValue[best][allowedIds[0]]; // Only read, never changed
+        int[] candidates = new int[bestSize];
+        int size = 0;
+        for (int id : allowedIds) {
+            int[] valueCells = cellsByValue[best][id];
+            System.arraycopy(valueCells, 0, candidates, size, valueCells.length);
+            size += valueCells.length;
+        }
+        Arrays.sort(candidates); // In cell order, as the values' cells are spread over the columns
+        return candidates;
+    }
+
+    private boolean matches(Filters filters, int cell) {
+        for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+            boolean[] allowed = filters.allowed[dimension];
+            if (allowed != null && !allowed[cellValues[dimension][cell]])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param params (Map<String, List<String>>) - The query parameters
+     * @param other  (String...) - The other parameters the path takes
+     * @return Returns the filters of the query
+     * @throws IllegalArgumentException if a parameter is neither a dimension nor one of other
+     */
+    private Filters filters(Map<String, List<String>> params, String... other) {
+        Filters filters = new Filters();
+        for (Map.Entry<String, List<String>> param : params.entrySet()) {
+            int dimension = Arrays.asList(CubeBuilder.DIMENSIONS).indexOf(param.getKey());
+            if (dimension < 0) {
+                if (!Arrays.asList(other).contains(param.getKey()))
+                    throw new IllegalArgumentException("Unknown parameter " + param.getKey());
+                continue;
+            }
+            boolean[] allowed = new boolean[values.get(dimension).size()];
+            int[] allowedIds = new int[param.getValue().size()];
+            int found = 0;
+            for (String value : param.getValue()) {
+                Integer id = ids.get(dimension).get(value);
+                if (id != null && !allowed[id]) {
+                    allowed[id] = true;
+                    allowedIds[found++] = id;
+                }
+            }
+            filters.allowed[dimension] = allowed;
+            filters.allowedIds[dimension] = Arrays.copyOf(allowedIds, found);
+            filters.none |= found == 0;
+        }
+        return filters;
+    }
+
+    private static int dimension(Map<String, List<String>> params, String defaultValue) {
+        List<String> dim = params.get("dim");
+        String name = dim == null ? defaultValue : dim.get(0);
+        if (name == null)
+            throw new IllegalArgumentException("Missing parameter dim, one of " + Arrays.toString(
+                    CubeBuilder.DIMENSIONS));
+        int dimension = Arrays.asList(CubeBuilder.DIMENSIONS).indexOf(name);
+        if (dimension < 0)
+            throw new IllegalArgumentException("Unknown dimension " + name + ", not one of " + Arrays.toString(
+                    CubeBuilder.DIMENSIONS));
+        return dimension;
+    }
+
+    /**
+     * @return Returns the k parameter, capped at the number of distinct values of dimension, which any larger K ranks
+     */
+    private int k(Map<String, List<String>> params, int dimension) {
+        return Math.min(intParam(params, "k", 10, Integer.MAX_VALUE), Math.max(1, values.get(dimension).size()));
+    }
+
+    private static int intParam(Map<String, List<String>> params, String name, int defaultValue, int max) {
+        List<String> value = params.get(name);
+        if (value == null)
+            return defaultValue;
+        try {
+            int parsed = Integer.parseInt(value.get(0));
+            if (parsed >= 1 && parsed <= max)
+                return parsed;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Parameter " + name + " must be a number between 1 and " + max + ", was "
+                + value.get(0));
+    }
+
+    /**
+     * @return Returns the average wage in whole dollars, or null if none of the applications had a wage
+     */
+    private static String average(long wageSum, long wageCount) {
+        return wageCount == 0 ? "null" : Long.toString(Math.round((double) wageSum / wageCount));
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); // Every JVM supports UTF-8
+        }
+    }
+
+    /**
+     * @return Returns the parameters of a raw (still URL encoded) query string, a list of values per name
+     */
+    private static Map<String, List<String>> parseQuery(String query) throws IOException {
+        Map<String, List<String>> params = new HashMap<>();
+        if (query == null || query.isEmpty())
+            return params;
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty())
+                continue;
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), "UTF-8");
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+            List<String> list = params.get(name);
+            if (list == null)
+                params.put(name, list = new ArrayList<>());
+            list.add(value);
+        }
+        return params;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        byte[] body;
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                status = 405;
+                body = "{\"error\":\"Only GET requests are answered\"}".getBytes(StandardCharsets.UTF_8);
+            } else {
+                body = answer(exchange.getRequestURI().getPath(), parseQuery(exchange.getRequestURI().getRawQuery()));
+                if (body == null) {
+                    status = 404;
+                    body = ("{\"error\":" + Json.quote("Unknown path " + exchange.getRequestURI().getPath()
+                            + ", try /topk, /count, /points or /stats") + "}").getBytes(StandardCharsets.UTF_8);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = ("{\"error\":" + Json.quote(e.getMessage()) + "}").getBytes(StandardCharsets.UTF_8);
+        } catch (Throwable e) {
+            // Answer anyway, or the client waits until it times out
+            System.err.println("Failed to answer " + exchange.getRequestURI());
+            e.printStackTrace();
+            status = 500;
+            body = ("{\"error\":" + Json.quote("Internal error: " + e) + "}").getBytes(StandardCharsets.UTF_8);
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        // Picks up -D options such as -D h1b.cube.port=9000
+        String[] paths = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (paths.length != 1) {
+            System.err.println("Usage: CubeServer [-D <option>=<value>...] <cube directory>");
+            System.exit(2);
+        }
+
+        long start = System.nanoTime();
+        final CubeServer cube = new CubeServer(conf.getInt(CACHE_ENTRIES, 1000));
+        cube.load(conf, new Path(paths[0]));
+        InetSocketAddress address = new InetSocketAddress(conf.get(HOST, "localhost"), conf.getInt(PORT, 8090));
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/", cube::handle);
+        server.setExecutor(Executors.newFixedThreadPool(conf.getInt(THREADS, 4)));
+        server.start();
+        System.out.println("Loaded " + cube.cells + " cells from " + paths[0] + " in "
+                + (System.nanoTime() - start) / 1000000 + " ms, listening on http://" + address.getHostString() + ":"
+                + address.getPort() + "/");
+    }
+}
@@ -0,0 +1,83 @@
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+
+import java.io.IOException;
+
+/**
+ * TextInputFormat that applies the job's RowFilter to every csv row before it is handed to the mapper.  Rows that
+ * fail a predicate are dropped inside the record reader and counted in RowFilter.Counters.
+ * <p>
+ * The rows are read one line each, like TextInputFormat does, or with a CsvRowRecordReader when h1b.csv.multiline is
+ * set, for csv files whose quoted fields contain line breaks.  Either way the input may be bzip2 compressed and is
+ * still split across mappers, see TextInputFormat.isSplitable().
+ */
+public class FilteringTextInputFormat extends TextInputFormat {
+
+    public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+        RecordReader<LongWritable, Text> rows = CsvRowRecordReader.isEnabled(context.getConfiguration())
+                ? new CsvRowRecordReader() : super.createRecordReader(split, context);
+        return new FilteringRecordReader(rows);
+    }
+
+    public static class FilteringRecordReader extends RecordReader<LongWritable, Text> {
+
+        private final RecordReader<LongWritable, Text> lines;
+        private RowFilter filter;
+        private CsvFieldScanner scanner;
+        private org.apache.hadoop.mapreduce.Counter rowsPruned; // FileInputFormat.Counter would shadow it
+        private org.apache.hadoop.mapreduce.Counter bytesPruned;
+
+        /**
+         * @param lines (RecordReader) - The LineRecordReader or CsvRowRecordReader the rows come from
+         */
+        public FilteringRecordReader(RecordReader<LongWritable, Text> lines) {
+            this.lines = lines;
+        }
+
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+            lines.initialize(split, context);
+            filter = RowFilter.get(context.getConfiguration());
+            if (filter != null)
+                scanner = new CsvFieldScanner(filter.columnsNeeded());
+            rowsPruned = context.getCounter(RowFilter.Counters.ROWS_PRUNED);
+            bytesPruned = context.getCounter(RowFilter.Counters.BYTES_PRUNED);
+        }
+
+        /**
+         * Reads lines until one passes the filter.
+         */
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            while (lines.nextKeyValue()) {
+                if (filter == null)
+                    return true;
+                Text row = lines.getCurrentValue();
+                scanner.scan(row.getBytes(), row.getLength(), filter.columnsNeeded());
+                if (filter.accept(scanner, row.getBytes()))
+                    return true;
+                rowsPruned.increment(1);
+                bytesPruned.increment(row.getLength() + 1); // + 1 for the line break
+            }
+            return false;
+        }
+
+        public LongWritable getCurrentKey() throws IOException, InterruptedException {
+            return lines.getCurrentKey();
+        }
+
+        public Text getCurrentValue() throws IOException, InterruptedException {
+            return lines.getCurrentValue();
+        }
+
+        public float getProgress() throws IOException, InterruptedException {
+            return lines.getProgress();
+        }
+
+        public void close() throws IOException {
+            lines.close();
+        }
+    }
+}
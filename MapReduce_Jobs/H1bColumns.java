@@ -0,0 +1,45 @@
+/**
+ * Column indexes of h1b_kaggle.csv.  The header of the dataset is...
+ * "","CASE_STATUS","EMPLOYER_NAME","SOC_NAME","JOB_TITLE","FULL_TIME_POSITION","PREVAILING_WAGE","YEAR","WORKSITE",
+ * "lon","lat"
+ */
+public final class H1bColumns {
+    public static final int ID = 0;
+    public static final int CASE_STATUS = 1;
+    public static final int EMPLOYER_NAME = 2;
+    public static final int SOC_NAME = 3;
+    public static final int JOB_TITLE = 4;
+    public static final int FULL_TIME_POSITION = 5;
+    public static final int PREVAILING_WAGE = 6;
+    public static final int YEAR = 7;
+    public static final int WORKSITE = 8;
+    public static final int LON = 9;
+    public static final int LAT = 10;
+
+    public static final int COUNT = 11;
+
+    public static final int NULL_INT = Integer.MIN_VALUE; // A blank (NA) YEAR, or any other int column
+
+    private H1bColumns() {
+    }
+
+    /**
+     * Parses an int column, such as YEAR, from the raw bytes of a row.
+     *
+     * @param bytes  (byte[]) - The bytes of the row
+     * @param start  (int) - Offset of the value in bytes[]
+     * @param length (int) - Length of the value
+     * @return Returns the number in bytes[start, start + length), or NULL_INT if it was blank (NA) or not a number
+     */
+    public static int parseInt(byte[] bytes, int start, int length) {
+        if (length == 0 || length > 9)
+            return NULL_INT;
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9')
+                return NULL_INT;
+            value = value * 10 + (bytes[i] - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * One row of a columnar H-1B file, as handed to the mappers by ColumnarInputFormat.
+ * <p>
+ * The record is a cursor over the row group that ColumnarFileReader decoded last: moving to the next row only moves
+ * an index, and dictionary values are handed out as offset/length pairs into the dictionary bytes, so reading a row
+ * does not allocate anything.  Only the columns that were asked for (see ColumnarInputFormat.setColumns()) are
+ * loaded; reading any other column throws IllegalStateException.
+ */
+public class H1bRecord {
+
+    final boolean[] loaded = new boolean[H1bColumns.COUNT];
+    final byte[][] dictionaryBytes = new byte[H1bColumns.COUNT][];
+    final int[][] dictionaryStarts = new int[H1bColumns.COUNT][];
+    final int[][] dictionaryLengths = new int[H1bColumns.COUNT][];
+    final int[][] ids = new int[H1bColumns.COUNT][];
+    final int[][] ints = new int[H1bColumns.COUNT][];
+    final double[][] doubles = new double[H1bColumns.COUNT][];
+    int rows;
+    int row;
+
+    /**
+     * @param column (int) - Column index (H1bColumns)
+     * @return Returns true if the column was loaded from the file
+     */
+    public boolean isLoaded(int column) {
+        return loaded[column];
+    }
+
+    /**
+     * @param column (int) - Column index (H1bColumns)
+     * @return Returns true if the column was left blank (NA) in this row
+     */
+    public boolean isNull(int column) {
+        checkLoaded(column);
+        switch (ColumnarFileWriter.encoding(column)) {
+            case ColumnarFileWriter.DICTIONARY:
+                return ids[column][row] < 0;
+            case ColumnarFileWriter.INT:
+                return ints[column][row] == H1bColumns.NULL_INT;
+            default:
+                return Double.isNaN(doubles[column][row]);
+        }
+    }
+
+    /**
+     * @param column (int) - Dictionary column index
+     * @return Returns the id of this row's value in the row group's dictionary, or -1 if it is blank
+     */
+    public int dictionaryId(int column) {
+        checkLoaded(column);
+        return ids[column][row];
+    }
+
+    /**
+     * @param column (int) - Dictionary column index
+     * @return Returns the array holding this row's value, see start() and length()
+     */
+    public byte[] bytes(int column) {
+        checkLoaded(column);
+        return dictionaryBytes[column];
+    }
+
+    /**
+     * @param column (int) - Dictionary column index, must not be blank in this row
+     * @return Returns the offset of this row's value in bytes(column)
+     */
+    public int start(int column) {
+        return dictionaryStarts[column][dictionaryId(column)];
+    }
+
+    /**
+     * @param column (int) - Dictionary column index, must not be blank in this row
+     * @return Returns the length of this row's value
+     */
+    public int length(int column) {
+        return dictionaryLengths[column][dictionaryId(column)];
+    }
+
+    /**
+     * Byte-wise prefix test on a dictionary column, like CsvFieldScanner.startsWith().
+     *
+     * @param column (int) - Dictionary column index
+     * @param prefix (byte[]) - The ASCII bytes the value has to begin with
+     * @return Returns false if the value is blank or does not start with prefix
+     */
+    public boolean startsWith(int column, byte[] prefix) {
+        int id = dictionaryId(column);
+        if (id < 0 || dictionaryLengths[column][id] < prefix.length)
+            return false;
+        byte[] bytes = dictionaryBytes[column];
+        int start = dictionaryStarts[column][id];
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[start + i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Byte-wise equality test on a dictionary column, like CsvFieldScanner.valueEquals().
+     *
+     * @param column (int) - Dictionary column index
+     * @param value  (byte[]) - The ASCII bytes the value has to be equal to
+     * @return Returns false if the value is blank or is not equal to value
+     */
+    public boolean valueEquals(int column, byte[] value) {
+        return startsWith(column, value) && length(column) == value.length;
+    }
+
+    /**
+     * @param column (int) - YEAR
+     * @return Returns the value, or H1bColumns.NULL_INT if it is blank
+     */
+    public int getInt(int column) {
+        checkLoaded(column);
+        return ints[column][row];
+    }
+
+    /**
+     * @param column (int) - PREVAILING_WAGE, LON or LAT
+     * @return Returns the value, or NaN if it is blank
+     */
+    public double getDouble(int column) {
+        checkLoaded(column);
+        return doubles[column][row];
+    }
+
+    private void checkLoaded(int column) {
+        if (!loaded[column])
+            throw new IllegalStateException("Column " + column + " was not loaded, see "
+                    + "ColumnarInputFormat.setColumns()");
+    }
+}
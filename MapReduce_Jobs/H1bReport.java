@@ -0,0 +1,381 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+
+/**
+ * Computes every ranking of the report in a single scan of the dataset, instead of running TopEmployers and
+ * TopJobTypesApproved (and a job per chart) over the whole csv one after the other.
+ * <p>
+ * The mapper counts several dimensions of each row at once.  Every key it emits is tagged with a leading byte naming
+ * its dimension, so all of the dimensions share one shuffle, and the reducer keeps a separate TopKRanking per
+ * dimension.  Each ranking is written to its own subdirectory of the output directory with MultipleOutputs:
+ * <p>
+ * employers/              - Employers that submitted the most applications (top 10)
+ * certified_job_titles/   - Most common Job Titles among CERTIFIED applications (top 20)
+ * applications_by_year/   - Applications submitted per YEAR
+ * certifications_by_year/ - CERTIFIED applications per YEAR
+ * worksites/              - Worksites with the most applications (top 10)
+ * wage_buckets/           - Applications per PREVAILING_WAGE bucket
+ * <p>
+ * The rankings are written in descending order of frequency, except applications_by_year, certifications_by_year and
+ * wage_buckets, which are written in order of year or of the low end of the bucket, the order they are charted in.
+ * <p>
+ * Configuration:
+ * h1b.report.k.<dimension> (int) - Number of distinct frequencies to rank for a dimension, e.g. h1b.report.k.worksites
+ * h1b.report.wage.bucket (int, default 10000) - Width of the wage buckets
+ * h1b.report.wage.max (int, default 200000) - Wages at or above this value all go to a single "max+" bucket
+ * h1b.topk.reducers (int, default 1) - Number of reducers, see TopKDriver
+ * h1b.filter.* - Only report on the rows the RowFilter accepts, see RowFilter
+ */
+public class H1bReport {
+
+    public static final String[] DIMENSIONS = {"employers", "certified_job_titles", "applications_by_year",
+            "certifications_by_year", "worksites", "wage_buckets"};
+    public static final int[] DEFAULT_K = {10, 20, 100, 100, 10, 100};
+
+    public static final byte EMPLOYERS = 0;
+    public static final byte CERTIFIED_JOB_TITLES = 1;
+    public static final byte APPLICATIONS_BY_YEAR = 2;
+    public static final byte CERTIFICATIONS_BY_YEAR = 3;
+    public static final byte WORKSITES = 4;
+    public static final byte WAGE_BUCKETS = 5;
+
+    public static final String K_PREFIX = "h1b.report.k.";
+    public static final String WAGE_BUCKET = "h1b.report.wage.bucket";
+    public static final String WAGE_MAX = "h1b.report.wage.max";
+
+    /**
+     * Orders keys by the number they start with, e.g. a year or the low end of a wage bucket such as 10000-19999, then
+     * as unsigned bytes.
+     */
+    public static final Comparator<byte[]> NUMERIC_ORDER = new Comparator<byte[]>() {
+        public int compare(byte[] a, byte[] b) {
+            int digitsA = leadingDigits(a);
+            int digitsB = leadingDigits(b);
+            // Without leading zeros, a longer number is a larger one
+            if (digitsA != digitsB)
+                return Integer.compare(digitsA, digitsB);
+            for (int i = 0; i < a.length && i < b.length; i++) {
+                if (a[i] != b[i])
+                    return Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            }
+            return Integer.compare(a.length, b.length);
+        }
+
+        private int leadingDigits(byte[] key) {
+            int digits = 0;
+            while (digits < key.length && key[digits] >= '0' && key[digits] <= '9')
+                digits++;
+            return digits;
+        }
+    };
+
+    public static class TokenizerMapper extends CountingMapper<Text> {
+
+        private final static byte[] CERTIFIED = "CERTIFIED".getBytes(StandardCharsets.US_ASCII);
+        private final CsvFieldScanner scanner = new CsvFieldScanner(H1bColumns.WORKSITE + 1);
+        private byte[] taggedKey = new byte[256];
+        private int wageBucket;
+        private int wageMax;
+
+        protected void setup(Context context) throws IOException, InterruptedException {
+            super.setup(context);
+            wageBucket = context.getConfiguration().getInt(WAGE_BUCKET, 10000);
+            wageMax = context.getConfiguration().getInt(WAGE_MAX, 200000);
+        }
+
+        /**
+         * Counts every dimension of the report for this row.  The same filters as the single ranking jobs apply:
+         * blank (NA) or 1 letter Employer names and Job Titles are discarded, and only CERTIFIED or
+         * CERTIFIED-WITHDRAWN applications count towards certified_job_titles and certifications_by_year.
+         *
+         * @param key     (Object) - Input key.  Not used in this function.
+         * @param value   (Text) - value is the Text object wrapping a row in the dataset csv
+         * @param context (Context) - The Context that we will be writing map output <key, value> pairs to
+         */
+        public void map(Object key, Text value, Context context)
+                throws IOException, InterruptedException {
+            byte[] row = value.getBytes();
+            if (scanner.scan(row, value.getLength(), H1bColumns.WORKSITE + 1) <= H1bColumns.WORKSITE) {
+                reject(CsvKeyFinder.Rejection.MALFORMED); // Improperly formatted or short row
+                return;
+            }
+
+            boolean certified = scanner.startsWith(H1bColumns.CASE_STATUS, CERTIFIED);
+
+            if (scanner.isQuoted(H1bColumns.EMPLOYER_NAME) && scanner.length(H1bColumns.EMPLOYER_NAME) > 1)
+                emitTagged(EMPLOYERS, row, H1bColumns.EMPLOYER_NAME, context);
+
+            if (certified && scanner.isQuoted(H1bColumns.JOB_TITLE) && scanner.length(H1bColumns.JOB_TITLE) > 1)
+                emitTagged(CERTIFIED_JOB_TITLES, row, H1bColumns.JOB_TITLE, context);
+
+            // YEAR is a bare number, or NA when it was left blank
+            if (!scanner.isQuoted(H1bColumns.YEAR) && isNumber(row, H1bColumns.YEAR)) {
+                emitTagged(APPLICATIONS_BY_YEAR, row, H1bColumns.YEAR, context);
+                if (certified)
+                    emitTagged(CERTIFICATIONS_BY_YEAR, row, H1bColumns.YEAR, context);
+            }
+
+            if (scanner.isQuoted(H1bColumns.WORKSITE) && scanner.length(H1bColumns.WORKSITE) > 1)
+                emitTagged(WORKSITES, row, H1bColumns.WORKSITE, context);
+
+            long wage = parseWage(row, scanner.start(H1bColumns.PREVAILING_WAGE),
+                    scanner.length(H1bColumns.PREVAILING_WAGE));
+            if (wage >= 0)
+                emitWageBucket(wage, context);
+        }
+
+        /**
+         * Emits the value of column, prefixed by the tag byte of its dimension.
+         */
+        private void emitTagged(byte tag, byte[] row, int column, Context context)
+                throws IOException, InterruptedException {
+            int length = scanner.length(column);
+            if (taggedKey.length < length + 1)
+                taggedKey = new byte[2 * (length + 1)];
+            taggedKey[0] = tag;
+            System.arraycopy(row, scanner.start(column), taggedKey, 1, length);
+            emit(taggedKey, 0, length + 1, context);
+        }
+
+        /**
+         * Emits the label of the bucket wage falls into, e.g. "60000-69999", or "200000+" for the last bucket.
+         */
+        private void emitWageBucket(long wage, Context context) throws IOException, InterruptedException {
+            int length = 0;
+            taggedKey[length++] = WAGE_BUCKETS;
+            if (wage >= wageMax) {
+                length = writeNumber(wageMax, length);
+                taggedKey[length++] = '+';
+            } else {
+                long low = wage / wageBucket * wageBucket;
+                length = writeNumber(low, length);
+                taggedKey[length++] = '-';
+                length = writeNumber(Math.min(low + wageBucket, wageMax) - 1, length);
+            }
+            emit(taggedKey, 0, length, context);
+        }
+
+        /**
+         * Writes number in ASCII digits into taggedKey[] starting at offset.
+         *
+         * @return Returns the offset just past the last digit
+         */
+        private int writeNumber(long number, int offset) {
+            int digits = 1;
+            for (long rest = number / 10; rest > 0; rest /= 10)
+                digits++;
+            for (int i = offset + digits - 1; i >= offset; i--) {
+                taggedKey[i] = (byte) ('0' + number % 10);
+                number /= 10;
+            }
+            return offset + digits;
+        }
+
+        /**
+         * @return Returns true if the column only holds digits
+         */
+        private boolean isNumber(byte[] row, int column) {
+            int start = scanner.start(column);
+            int length = scanner.length(column);
+            if (length == 0)
+                return false;
+            for (int i = start; i < start + length; i++) {
+                if (row[i] < '0' || row[i] > '9')
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * This Combiner extends Reducer and reduces by frequency count on each tagged key written to the context by the
+     * mapper it is assigned to.  Only used when in-mapper combining is switched off.
+     */
+    public static class IntSumCombiner
+            extends Reducer<Text, IntWritable, Text, IntWritable> {
+
+        /**
+         * @param key     (Text) - Text wrapper for the tagged key
+         * @param values  (Iterable<IntWritable>) - An Iterable of IntWritables each storing int values of 1.
+         * @param context (Context) - The context to write the key/value pairs to
+         */
+        public void reduce(Text key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+            int sum = 0;
+            for (IntWritable val : values) {
+                sum += val.get();
+            }
+            context.write(key, new IntWritable(sum));
+        }
+    }
+
+    /**
+     * Sums the frequency counts of each tagged key and offers the key, without its tag, to the TopKRanking of its
+     * dimension.  Every ranking is written to its own subdirectory of the output with MultipleOutputs.
+     */
+    public static class ReportReducer
+            extends Reducer<Text, IntWritable, Text, IntWritable> {
+
+        private final TopKRanking[] rankings = new TopKRanking[DIMENSIONS.length];
+        private final Text outKey = new Text();
+        private final IntWritable outFreq = new IntWritable();
+        private MultipleOutputs<Text, IntWritable> outputs;
+
+        protected void setup(Context context) throws IOException, InterruptedException {
+            for (int dimension = 0; dimension < DIMENSIONS.length; dimension++)
+                rankings[dimension] = new TopKRanking(getK(context.getConfiguration(), dimension));
+            outputs = new MultipleOutputs<>(context);
+        }
+
+        /**
+         * @param key     (Text) - Tag byte of the dimension followed by the key
+         * @param values  (Iterable<IntWritable>) - The frequency counts for the key
+         * @param context Unused, but required as a parameter.
+         */
+        public void reduce(Text key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+            int freq = 0;
+            for (IntWritable val : values) {
+                freq += val.get();
+            }
+            rankings[key.getBytes()[0]].offer(freq, key.getBytes(), 1, key.getLength() - 1);
+        }
+
+        /**
+         * Writes each dimension's ranking to <output>/<dimension>/part-r-NNNNN
+         *
+         * @param context (Context) - The context of this reduce task
+         */
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            for (int dimension = 0; dimension < DIMENSIONS.length; dimension++) {
+                final String baseOutputPath = DIMENSIONS[dimension] + "/part";
+                KeyCountVisitor writer = new KeyCountVisitor() {
+                    public void visit(byte[] bytes, int start, int length, int count)
+                            throws IOException, InterruptedException {
+                        outKey.set(bytes, start, length);
+                        outFreq.set(count);
+                        outputs.write(outKey, outFreq, baseOutputPath);
+                    }
+                };
+                if (getKeyOrder(dimension) == null)
+                    rankings[dimension].forEachDescending(writer);
+                else
+                    rankings[dimension].forEachInKeyOrder(getKeyOrder(dimension), writer);
+            }
+            outputs.close();
+        }
+    }
+
+    /**
+     * @param conf      (Configuration) - Job Configuration
+     * @param dimension (int) - Index into DIMENSIONS
+     * @return Returns the number of distinct frequencies to rank for the dimension
+     */
+    public static int getK(Configuration conf, int dimension) {
+        return conf.getInt(K_PREFIX + DIMENSIONS[dimension], DEFAULT_K[dimension]);
+    }
+
+    /**
+     * @param dimension (int) - Index into DIMENSIONS
+     * @return Returns the order to write the keys of the dimension in, or null for descending frequency
+     */
+    public static Comparator<byte[]> getKeyOrder(int dimension) {
+        if (dimension == APPLICATIONS_BY_YEAR || dimension == CERTIFICATIONS_BY_YEAR || dimension == WAGE_BUCKETS)
+            return NUMERIC_ORDER;
+        return null;
+    }
+
+    /**
+     * PREVAILING_WAGE is written as a bare number that may have a fractional part (e.g. 36067 or 187200.0), or as NA
+     * when it was left blank.
+     *
+     * @param row    (byte[]) - The bytes of the row
+     * @param start  (int) - Offset of the PREVAILING_WAGE value in row[]
+     * @param length (int) - Length of the value
+     * @return Returns the whole dollar part of the wage, or -1 if the column was blank or not a number
+     */
+    public static long parseWage(byte[] row, int start, int length) {
+        int end = start + length;
+        long wage = 0;
+        int i = start;
+        for (; i < end && row[i] != '.'; i++) {
+            if (row[i] < '0' || row[i] > '9' || wage > Integer.MAX_VALUE)
+                return -1;
+            wage = wage * 10 + (row[i] - '0');
+        }
+        return i == start ? -1 : wage;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        // Picks up -D options such as -D h1b.report.k.employers=100 or -D h1b.topk.reducers=4
+        String[] paths = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (conf.get(TopKDriver.SEPARATOR) == null)
+            conf.set(TopKDriver.SEPARATOR, " - ");
+        conf.setBoolean(KeyInterning.ENABLED, false); // The tagged keys are shuffled as they are
+        conf.setBoolean(ApproximateTopK.ENABLED, false);
+        if (conf.getInt(WAGE_BUCKET, 10000) <= 0)
+            throw new IllegalArgumentException(WAGE_BUCKET + " must be greater than 0, was " + conf.get(WAGE_BUCKET));
+        int reducers = conf.getInt(TopKDriver.REDUCERS, 1);
+        Path input = new Path(paths[0]);
+        Path output = new Path(paths[1]);
+
+        Job job = Job.getInstance(conf, "H-1B Report");
+        job.setJarByClass(H1bReport.class);
+        job.setMapperClass(TokenizerMapper.class);
+        if (RowFilter.isConfigured(conf) || CsvRowRecordReader.isEnabled(conf))
+            job.setInputFormatClass(FilteringTextInputFormat.class); // Rows are filtered before reaching the mapper
+        if (!conf.getBoolean(CountingMapper.IN_MEMORY_COMBINE, true))
+            job.setCombinerClass(IntSumCombiner.class);
+        job.setReducerClass(ReportReducer.class);
+        job.setNumReduceTasks(reducers);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(IntWritable.class);
+        FileInputFormat.addInputPath(job, input);
+
+        if (reducers == 1) {
+            // Everything is written through MultipleOutputs, so don't create an empty part-r-00000
+            LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+            FileOutputFormat.setOutputPath(job, output);
+            System.exit(job.waitForCompletion(true) ? 0 : 1);
+        }
+
+        FileSystem fs = output.getFileSystem(conf);
+        if (fs.exists(output))
+            throw new FileAlreadyExistsException("Output directory " + output + " already exists");
+
+        // Each reducer writes the local Top K of every dimension, which are merged one dimension at a time
+        Path partial = new Path(output.getParent(), output.getName() + "_partial");
+        LazyOutputFormat.setOutputFormatClass(job, SequenceFileOutputFormat.class);
+        FileOutputFormat.setOutputPath(job, partial);
+        if (!job.waitForCompletion(true))
+            System.exit(1);
+
+        for (int dimension = 0; dimension < DIMENSIONS.length; dimension++) {
+            Path dimensionPartial = new Path(partial, DIMENSIONS[dimension]);
+            if (fs.exists(dimensionPartial))
+                TopKDriver.mergeLocalRankings(conf, fs, dimensionPartial, new Path(output, DIMENSIONS[dimension]),
+                        getK(conf, dimension), getKeyOrder(dimension));
+        }
+        fs.create(new Path(output, "_SUCCESS")).close();
+        fs.delete(partial, true);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,187 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sampling pre-pass that finds the hot keys of a ranking job before it runs, for SaltingPartitioner.
+ * <p>
+ * Like Hadoop's InputSampler, the sampling runs in the driver: a few splits, evenly spread over the input, are read
+ * with the job's own InputFormat (so the job's RowFilter applies) and the first rows of each are handed to the job's
+ * own CountingMapper, with in-mapper combining, so the sample counts exactly the keys the job will count.
+ * <p>
+ * A key is hot when its share of the sampled keys is at least h1b.skew.hot.share of the share each reducer gets on
+ * average.  With the defaults and 4 reducers, a key is hot if it makes up more than 6.25% of the rows, which
+ * PROGRAMMER ANALYST (about 9% of the certified job titles) does.
+ * <p>
+ * Configuration:
+ * h1b.skew.sample.splits (int, default 10) - Number of splits to sample
+ * h1b.skew.sample.rows (int, default 10000) - Number of rows sampled from the start of each of them
+ * h1b.skew.hot.share (float, default 0.25) - Share of a reducer's average load from which a key is hot
+ */
+public class HotKeySampler {
+
+    public static final String SAMPLE_SPLITS = "h1b.skew.sample.splits";
+    public static final String SAMPLE_ROWS = "h1b.skew.sample.rows";
+    public static final String HOT_SHARE = "h1b.skew.hot.share";
+
+    /**
+     * Samples the job's input and returns its hot keys.
+     *
+     * @param job (Job) - The ranking job, fully configured, with Text map output keys
+     * @return Returns the hot keys, in descending order of sampled frequency
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Text> sample(Job job) throws IOException, InterruptedException, ClassNotFoundException {
+        Configuration conf = new Configuration(job.getConfiguration());
+        // The sample is counted in memory, by key, and nothing is written anywhere
+        conf.setBoolean(CountingMapper.IN_MEMORY_COMBINE, true);
+        conf.setBoolean(KeyInterning.ENABLED, false);
+        conf.setBoolean(ApproximateTopK.ENABLED, false);
+        conf.unset(TaskMetrics.DIR);
+
+        InputFormat<?, ?> inputFormat = ReflectionUtils.newInstance(job.getInputFormatClass(), conf);
+        List<InputSplit> splits = inputFormat.getSplits(job);
+        int samples = Math.min(splits.size(), conf.getInt(SAMPLE_SPLITS, 10));
+        final int rows = conf.getInt(SAMPLE_ROWS, 10000);
+
+        final ByteKeyCountMap counts = new ByteKeyCountMap(Long.MAX_VALUE);
+        final long[] total = {0};
+        RecordWriter<WritableComparable<?>, Writable> sampleWriter =
+                new RecordWriter<WritableComparable<?>, Writable>() {
+                    public void write(WritableComparable<?> key, Writable value) {
+                        Text text = (Text) key;
+                        int count = ((IntWritable) value).get();
+                        counts.add(text.getBytes(), 0, text.getLength(), count);
+                        total[0] += count;
+                    }
+
+                    public void close(TaskAttemptContext context) {
+                    }
+                };
+        SampleReporter reporter = new SampleReporter();
+
+        for (int i = 0; i < samples; i++) {
+            InputSplit split = splits.get((int) ((long) i * splits.size() / samples));
+            TaskAttemptID id = new TaskAttemptID("sample", 0, TaskType.MAP, i, 0);
+            RecordReader<Object, Object> reader = new FirstRowsRecordReader((RecordReader<Object, Object>)
+                    inputFormat.createRecordReader(split, new TaskAttemptContextImpl(conf, id)), rows);
+            Mapper<Object, Object, WritableComparable<?>, Writable> mapper =
+                    (Mapper<Object, Object, WritableComparable<?>, Writable>) ReflectionUtils.newInstance(
+                            job.getMapperClass(), conf);
+            Mapper<Object, Object, WritableComparable<?>, Writable>.Context context =
+                    new WrappedMapper<Object, Object, WritableComparable<?>, Writable>().getMapContext(
+                            new MapContextImpl<>(conf, id, reader, sampleWriter, null, reporter, split));
+            reader.initialize(split, context);
+            try {
+                mapper.run(context);
+            } finally {
+                reader.close();
+            }
+        }
+
+        final double threshold = conf.getFloat(HOT_SHARE, 0.25f) * total[0] / job.getNumReduceTasks();
+        final List<Text> hotKeys = new ArrayList<>();
+        final List<Integer> hotCounts = new ArrayList<>();
+        counts.forEach(new KeyCountVisitor() {
+            public void visit(byte[] bytes, int start, int length, int count) {
+                if (count < threshold)
+                    return;
+                int index = 0;
+                while (index < hotCounts.size() && hotCounts.get(index) >= count)
+                    index++;
+                Text key = new Text();
+                key.set(bytes, start, length);
+                hotKeys.add(index, key);
+                hotCounts.add(index, count);
+            }
+        });
+        return hotKeys;
+    }
+
+    /**
+     * Hands out the first rows of a split only.
+     */
+    private static class FirstRowsRecordReader extends RecordReader<Object, Object> {
+
+        private final RecordReader<Object, Object> reader;
+        private final int rows;
+        private int read;
+
+        FirstRowsRecordReader(RecordReader<Object, Object> reader, int rows) {
+            this.reader = reader;
+            this.rows = rows;
+        }
+
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+            reader.initialize(split, context);
+        }
+
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            return read++ < rows && reader.nextKeyValue();
+        }
+
+        public Object getCurrentKey() throws IOException, InterruptedException {
+            return reader.getCurrentKey();
+        }
+
+        public Object getCurrentValue() throws IOException, InterruptedException {
+            return reader.getCurrentValue();
+        }
+
+        public float getProgress() throws IOException, InterruptedException {
+            return Math.min(1f, (float) read / rows);
+        }
+
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Keeps the counters the mapper and the record reader increment while sampling, which are not reported anywhere.
+     */
+    private static class SampleReporter extends StatusReporter {
+
+        private final Counters counters = new Counters();
+
+        public Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        public Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        public void progress() {
+        }
+
+        public float getProgress() {
+            return 0;
+        }
+
+        public void setStatus(String status) {
+        }
+    }
+}
@@ -0,0 +1,511 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Runs TopEmployers or TopJobTypesApproved incrementally.  Instead of keeping only the Top K, the full count table of
+ * the job's keys is saved in a state directory, partitioned by YEAR.  Each run only reads its input (for example the
+ * csv of a newly published year), counts it per year, merges the new counts into the saved ones and ranks the merged
+ * totals.  The cost of a run depends on the size of its input and on the number of distinct keys, not on the number
+ * of rows already counted.
+ * <p>
+ * The state directory holds...
+ * <p>
+ * _MANIFEST  - The directory of every year partition and of the totals, one "name TAB directory" line each
+ * _gen_N/    - Directories written by the Nth run: the year=YYYY/ partitions of its input and the new totals/
+ * _JOB       - Name of the job the state belongs to
+ * <p>
+ * A year=YYYY partition is the count table of the keys of one YEAR (year=NA for rows with a blank YEAR), as block
+ * compressed SequenceFiles of <Text key, IntWritable count>.  The totals are the sum of every year partition, in the
+ * same format.  A year that is in the input replaces the saved partition of that year instead of being added to it,
+ * so rerunning a year (or a corrected release of it) does not count its rows twice.  Years not in the input are left
+ * as they are.
+ * <p>
+ * A run never changes a directory listed in _MANIFEST.  The first job counts the input into a new _gen_N/, and a
+ * second job sums the new totals in its reducers, from the saved totals, the replaced partitions (negated) and the new
+ * partitions, and ranks them.  The run is then committed by renaming a complete _MANIFEST_new into place, after which
+ * the directories no longer listed are deleted.  The next run rolls back a run that failed before its commit, by
+ * deleting its unlisted _gen_N/, and finishes the swap of one that failed after it.
+ * <p>
+ * Usage: IncrementalRanking [-D option=value ...] TopEmployers|TopJobTypesApproved input state_directory output
+ * <p>
+ * Configuration:
+ * h1b.state.rebuild.totals (boolean, default false) - Sum totals/ from the year partitions instead of updating it
+ * h1b.topk.reducers (int, default 1) - Number of reducers counting in parallel
+ */
+public class IncrementalRanking {
+
+    public static final String KEY_COLUMN = "h1b.state.key.column";
+    public static final String REBUILD_TOTALS = "h1b.state.rebuild.totals";
+    public static final String YEAR_PREFIX = "year=";
+    public static final String TOTALS = "totals";
+
+    private static final String JOB_FILE = "_JOB";
+    private static final String MANIFEST = "_MANIFEST";
+    private static final String MANIFEST_NEW = "_MANIFEST_new";
+    private static final String MANIFEST_TMP = "_MANIFEST_tmp";
+    private static final String GENERATION_PREFIX = "_gen_";
+    private static final String MERGE = "_merge";
+    private static final String RANKING = "ranking";
+
+    /**
+     * Counts the job's key for each row, tagged with the row's YEAR: the key written to the Context is the 4 byte
+     * (big-endian) year followed by the key, H1bColumns.NULL_INT standing for a blank YEAR.
+     */
+    public static class YearMapper extends CountingMapper<Text> {
+
+        private CsvKeyFinder finder;
+        private byte[] yearKey = new byte[256];
+
+        protected void setup(Context context) throws IOException, InterruptedException {
+            super.setup(context);
+            finder = new CsvKeyFinder(context.getConfiguration().getInt(KEY_COLUMN, H1bColumns.EMPLOYER_NAME),
+                    H1bColumns.YEAR + 1);
+        }
+
+        /**
+         * @param key     (Object) - Input key.  Not used in this function.
+         * @param value   (Text) - value is the Text object wrapping a row in the dataset csv
+         * @param context (Context) - The Context that we will be writing map output <key, value> pairs to
+         */
+        public void map(Object key, Text value, Context context)
+                throws IOException, InterruptedException {
+            byte[] row = value.getBytes();
+            if (!finder.find(row, value.getLength())) {
+                reject(finder.rejection());
+                return;
+            }
+            CsvFieldScanner scanner = finder.scanner();
+            int year = scanner.columns() > H1bColumns.YEAR ? H1bColumns.parseInt(row,
+                    scanner.start(H1bColumns.YEAR), scanner.length(H1bColumns.YEAR)) : H1bColumns.NULL_INT;
+
+            int length = finder.length();
+            if (yearKey.length < length + 4)
+                yearKey = new byte[2 * (length + 4)];
+            yearKey[0] = (byte) (year >>> 24);
+            yearKey[1] = (byte) (year >>> 16);
+            yearKey[2] = (byte) (year >>> 8);
+            yearKey[3] = (byte) year;
+            System.arraycopy(row, finder.start(), yearKey, 4, length);
+            emit(yearKey, 0, length + 4, context);
+        }
+    }
+
+    /**
+     * This Combiner sums the frequency counts of each year tagged key written by the mapper it is assigned to.
+     */
+    public static class IntSumCombiner
+            extends Reducer<Text, IntWritable, Text, IntWritable> {
+
+        /**
+         * @param key     (Text) - Text wrapper for the year tagged key
+         * @param values  (Iterable<IntWritable>) - An Iterable of IntWritables each storing int values of 1.
+         * @param context (Context) - The context to write the key/value pairs to
+         */
+        public void reduce(Text key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+            int sum = 0;
+            for (IntWritable val : values) {
+                sum += val.get();
+            }
+            context.write(key, new IntWritable(sum));
+        }
+    }
+
+    /**
+     * Sums the frequency counts of each year tagged key and writes the key, without its year, to the partition of
+     * its year with MultipleOutputs.
+     */
+    public static class StateReducer
+            extends Reducer<Text, IntWritable, Text, IntWritable> {
+
+        private final Text outKey = new Text();
+        private final IntWritable outCount = new IntWritable();
+        private MultipleOutputs<Text, IntWritable> outputs;
+
+        protected void setup(Context context) throws IOException, InterruptedException {
+            outputs = new MultipleOutputs<>(context);
+        }
+
+        /**
+         * @param key     (Text) - 4 byte year followed by the key
+         * @param values  (Iterable<IntWritable>) - The frequency counts for the key
+         * @param context Unused, but required as a parameter.
+         */
+        public void reduce(Text key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+            int count = 0;
+            for (IntWritable val : values) {
+                count += val.get();
+            }
+            byte[] bytes = key.getBytes();
+            int year = (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+            outKey.set(bytes, 4, key.getLength() - 4);
+            outCount.set(count);
+            outputs.write(outKey, outCount, partitionName(year) + "/part");
+        }
+
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            outputs.close();
+        }
+    }
+
+    /**
+     * Negates the counts of a partition that is being replaced, so that they are taken out of the totals.
+     */
+    public static class NegatingMapper extends Mapper<Text, IntWritable, Text, IntWritable> {
+
+        private final IntWritable negated = new IntWritable();
+
+        public void map(Text key, IntWritable count, Context context) throws IOException, InterruptedException {
+            negated.set(-count.get());
+            context.write(key, negated);
+        }
+    }
+
+    /**
+     * Sums the counts of each key, writes the new total to totals/ and offers the key to a TopKRanking.  The local
+     * ranking is written to ranking/ once the last key has been reduced, for TopKDriver.mergeLocalRankings() to merge.
+     * Both are written with MultipleOutputs.
+     */
+    public static class TotalsReducer
+            extends Reducer<Text, IntWritable, Text, IntWritable> {
+
+        private final IntWritable outCount = new IntWritable();
+        private final Text outKey = new Text();
+        private MultipleOutputs<Text, IntWritable> outputs;
+        private TopKRanking ranking;
+
+        protected void setup(Context context) throws IOException, InterruptedException {
+            outputs = new MultipleOutputs<>(context);
+            ranking = new TopKRanking(context.getConfiguration().getInt(TopKReducer.K, 10));
+        }
+
+        /**
+         * @param key     (Text) - Text wrapper for the key
+         * @param values  (Iterable<IntWritable>) - Its saved total, the negated counts of its replaced partitions and
+         *                its new counts
+         * @param context Unused, but required as a parameter.
+         */
+        public void reduce(Text key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+            int count = 0;
+            for (IntWritable val : values) {
+                count += val.get();
+            }
+            if (count <= 0) // Keys whose replaced partition was their only one
+                return;
+            outCount.set(count);
+            outputs.write(key, outCount, TOTALS + "/part");
+            ranking.offer(count, key.getBytes(), 0, key.getLength());
+        }
+
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            ranking.forEachDescending(new KeyCountVisitor() {
+                public void visit(byte[] bytes, int start, int length, int count)
+                        throws IOException, InterruptedException {
+                    outKey.set(bytes, start, length);
+                    outCount.set(count);
+                    outputs.write(outKey, outCount, RANKING + "/part");
+                }
+            });
+            outputs.close();
+        }
+    }
+
+    /**
+     * @param year (int) - A YEAR, or H1bColumns.NULL_INT
+     * @return Returns the name of the year's partition in the state directory
+     */
+    public static String partitionName(int year) {
+        return YEAR_PREFIX + (year == H1bColumns.NULL_INT ? "NA" : Integer.toString(year));
+    }
+
+    /**
+     * Counts input into new year partitions, sums them into new totals with the saved state, writes the Top K of the
+     * new totals to output, then commits the new state.
+     *
+     * @param conf    (Configuration) - Job Configuration, with the ranking job's defaults set
+     * @param jobName (String) - Name of the ranking job, saved in the state directory
+     * @param input   (Path) - Input path, the csv rows to add
+     * @param state   (Path) - State directory, created by the first run
+     * @param output  (Path) - Output directory, must not exist yet
+     * @return Returns true if the job succeeded
+     */
+    public static boolean run(Configuration conf, String jobName, Path input, Path state, Path output)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        FileSystem fs = state.getFileSystem(conf);
+        if (output.getFileSystem(conf).exists(output))
+            throw new FileAlreadyExistsException("Output directory " + output + " already exists");
+        checkJob(fs, state, jobName);
+        Map<String, String> manifest = readManifest(fs, state);
+        String generationName = GENERATION_PREFIX + nextGeneration(fs, state);
+        Path generation = new Path(state, generationName);
+
+        Job job = Job.getInstance(conf, jobName + " (incremental)");
+        job.setJarByClass(IncrementalRanking.class);
+        job.setMapperClass(YearMapper.class);
+        if (RowFilter.isConfigured(conf) || CsvRowRecordReader.isEnabled(conf))
+            job.setInputFormatClass(FilteringTextInputFormat.class);
+        if (!conf.getBoolean(CountingMapper.IN_MEMORY_COMBINE, true))
+            job.setCombinerClass(IntSumCombiner.class);
+        job.setReducerClass(StateReducer.class);
+        job.setNumReduceTasks(conf.getInt(TopKDriver.REDUCERS, 1));
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(IntWritable.class);
+        // Everything is written through MultipleOutputs, so don't create empty part-r-NNNNN files
+        LazyOutputFormat.setOutputFormatClass(job, SequenceFileOutputFormat.class);
+        FileOutputFormat.setCompressOutput(job, true);
+        SequenceFileOutputFormat.setOutputCompressionType(job, SequenceFile.CompressionType.BLOCK);
+        FileInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, generation);
+        if (!job.waitForCompletion(true))
+            return false;
+
+        // The totals are summed in the reducers of a second job, from the saved totals and the partitions
+        Map<String, String> next = new TreeMap<>(manifest);
+        Job totals = Job.getInstance(conf, jobName + " (incremental totals)");
+        boolean rebuild = conf.getBoolean(REBUILD_TOTALS, false) || !manifest.containsKey(TOTALS);
+        if (!rebuild)
+            addCounts(totals, new Path(state, manifest.get(TOTALS)), false);
+        for (FileStatus partition : fs.listStatus(generation, path -> path.getName().startsWith(YEAR_PREFIX))) {
+            String name = partition.getPath().getName();
+            if (!rebuild && manifest.containsKey(name))
+                addCounts(totals, new Path(state, manifest.get(name)), true);
+            next.put(name, generationName + Path.SEPARATOR + name);
+        }
+        boolean empty = true;
+        for (Map.Entry<String, String> partition : next.entrySet()) {
+            if (!partition.getKey().startsWith(YEAR_PREFIX))
+                continue;
+            // Without a rebuild, the partitions kept from the last run are already in its totals
+            if (rebuild || partition.getValue().startsWith(generationName + Path.SEPARATOR))
+                addCounts(totals, new Path(state, partition.getValue()), false);
+            empty = false;
+        }
+
+        Path merge = new Path(generation, MERGE);
+        Path newTotals = new Path(generation, TOTALS);
+        FileSystem outputFs = output.getFileSystem(conf);
+        if (empty) {
+            // Nothing was ever counted, there is nothing for the second job to read
+            fs.mkdirs(newTotals);
+            TopKDriver.writeRanking(conf, outputFs, new TopKRanking(conf.getInt(TopKReducer.K, 10)), output);
+        } else {
+            totals.setJarByClass(IncrementalRanking.class);
+            totals.setCombinerClass(IntSumCombiner.class);
+            totals.setReducerClass(TotalsReducer.class);
+            totals.setNumReduceTasks(conf.getInt(TopKDriver.REDUCERS, 1));
+            totals.setOutputKeyClass(Text.class);
+            totals.setOutputValueClass(IntWritable.class);
+            // Everything is written through MultipleOutputs, so don't create empty part-r-NNNNN files
+            LazyOutputFormat.setOutputFormatClass(totals, SequenceFileOutputFormat.class);
+            FileOutputFormat.setCompressOutput(totals, true);
+            SequenceFileOutputFormat.setOutputCompressionType(totals, SequenceFile.CompressionType.BLOCK);
+            FileOutputFormat.setOutputPath(totals, merge);
+            if (!totals.waitForCompletion(true))
+                return false;
+            if (fs.exists(new Path(merge, TOTALS)))
+                rename(fs, new Path(merge, TOTALS), newTotals);
+            else
+                fs.mkdirs(newTotals); // Every key was in a replaced partition only
+            Path ranking = new Path(merge, RANKING);
+            if (fs.exists(ranking))
+                TopKDriver.mergeLocalRankings(conf, fs, ranking, output, conf.getInt(TopKReducer.K, 10));
+            else
+                TopKDriver.writeRanking(conf, outputFs, new TopKRanking(conf.getInt(TopKReducer.K, 10)), output);
+            delete(fs, merge);
+        }
+        next.put(TOTALS, generationName + Path.SEPARATOR + TOTALS);
+
+        commitManifest(fs, state, next);
+        deleteUnlisted(fs, state, next);
+        outputFs.create(new Path(output, "_SUCCESS")).close();
+        return true;
+    }
+
+    /**
+     * Adds the part-* SequenceFiles of a partition or of the totals to the input of the totals job.
+     *
+     * @param job     (Job) - The totals job
+     * @param dir     (Path) - Directory of the counts
+     * @param replace (boolean) - True if the counts are being replaced, and have to be taken out of the totals
+     */
+    private static void addCounts(Job job, Path dir, boolean replace) {
+        MultipleInputs.addInputPath(job, dir, SequenceFileInputFormat.class,
+                replace ? NegatingMapper.class : Mapper.class);
+    }
+
+    /**
+     * Records the job's name in a new state directory, or makes sure an existing one was written by the same job and
+     * recovers it from a run that did not finish, see recover().
+     */
+    private static void checkJob(FileSystem fs, Path state, String jobName) throws IOException {
+        Path jobFile = new Path(state, JOB_FILE);
+        if (!fs.exists(jobFile)) {
+            fs.mkdirs(state);
+            try (FSDataOutputStream out = fs.create(jobFile)) {
+                out.write(jobName.getBytes(StandardCharsets.UTF_8));
+            }
+            return;
+        }
+        byte[] saved = new byte[(int) fs.getFileStatus(jobFile).getLen()];
+        try (FSDataInputStream in = fs.open(jobFile)) {
+            in.readFully(saved);
+        }
+        if (!jobName.equals(new String(saved, StandardCharsets.UTF_8)))
+            throw new IOException("State directory " + state + " belongs to " + new String(saved,
+                    StandardCharsets.UTF_8) + ", not " + jobName);
+        recover(fs, state);
+    }
+
+    /**
+     * Finishes the commit of a run that failed after writing _MANIFEST_new, and rolls back a run that failed before,
+     * by deleting every directory the manifest does not list.
+     */
+    private static void recover(FileSystem fs, Path state) throws IOException {
+        delete(fs, new Path(state, MANIFEST_TMP));
+        if (fs.exists(new Path(state, MANIFEST_NEW)))
+            finishCommit(fs, state);
+        deleteUnlisted(fs, state, readManifest(fs, state));
+    }
+
+    /**
+     * @return Returns the <name, directory relative to state> pairs of the manifest, none for a new state directory
+     */
+    private static Map<String, String> readManifest(FileSystem fs, Path state) throws IOException {
+        Map<String, String> manifest = new TreeMap<>();
+        Path file = new Path(state, MANIFEST);
+        if (!fs.exists(file))
+            return manifest;
+        byte[] bytes = new byte[(int) fs.getFileStatus(file).getLen()];
+        try (FSDataInputStream in = fs.open(file)) {
+            in.readFully(bytes);
+        }
+        for (String line : new String(bytes, StandardCharsets.UTF_8).split("\n")) {
+            if (line.isEmpty())
+                continue;
+            int tab = line.indexOf('\t');
+            if (tab < 0)
+                throw new IOException("Malformed line in " + file + ": " + line);
+            manifest.put(line.substring(0, tab), line.substring(tab + 1));
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest to _MANIFEST_tmp, then renames it to _MANIFEST_new, which commits the run, and over
+     * _MANIFEST.
+     */
+    private static void commitManifest(FileSystem fs, Path state, Map<String, String> manifest) throws IOException {
+        Path tmp = new Path(state, MANIFEST_TMP);
+        try (FSDataOutputStream out = fs.create(tmp, true)) {
+            for (Map.Entry<String, String> entry : manifest.entrySet())
+                out.write((entry.getKey() + '\t' + entry.getValue() + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+        rename(fs, tmp, new Path(state, MANIFEST_NEW));
+        finishCommit(fs, state);
+    }
+
+    /**
+     * Replaces _MANIFEST with the committed _MANIFEST_new.
+     */
+    private static void finishCommit(FileSystem fs, Path state) throws IOException {
+        Path manifest = new Path(state, MANIFEST);
+        delete(fs, manifest);
+        rename(fs, new Path(state, MANIFEST_NEW), manifest);
+    }
+
+    /**
+     * Deletes the _gen_N directories, and the partitions and totals inside them, that manifest does not list.
+     */
+    private static void deleteUnlisted(FileSystem fs, Path state, Map<String, String> manifest) throws IOException {
+        Set<String> listed = new HashSet<>(manifest.values());
+        Set<String> generations = new HashSet<>();
+        for (String dir : listed)
+            generations.add(dir.substring(0, dir.indexOf(Path.SEPARATOR)));
+        for (FileStatus generation : fs.listStatus(state, path -> path.getName().startsWith(GENERATION_PREFIX))) {
+            String name = generation.getPath().getName();
+            if (!generations.contains(name)) {
+                delete(fs, generation.getPath());
+                continue;
+            }
+            for (FileStatus dir : fs.listStatus(generation.getPath(), path -> path.getName().startsWith(YEAR_PREFIX)
+                    || path.getName().equals(TOTALS) || path.getName().equals(MERGE))) {
+                if (!listed.contains(name + Path.SEPARATOR + dir.getPath().getName()))
+                    delete(fs, dir.getPath());
+            }
+        }
+    }
+
+    /**
+     * @return Returns the number of the next _gen_N directory, one more than the highest in state
+     */
+    private static int nextGeneration(FileSystem fs, Path state) throws IOException {
+        int highest = 0;
+        for (FileStatus generation : fs.listStatus(state, path -> path.getName().startsWith(GENERATION_PREFIX)))
+            highest = Math.max(highest, Integer.parseInt(generation.getPath().getName()
+                    .substring(GENERATION_PREFIX.length())));
+        return highest + 1;
+    }
+
+    private static void rename(FileSystem fs, Path from, Path to) throws IOException {
+        if (!fs.rename(from, to))
+            throw new IOException("Could not rename " + from + " to " + to);
+    }
+
+    private static void delete(FileSystem fs, Path path) throws IOException {
+        if (fs.exists(path) && !fs.delete(path, true))
+            throw new IOException("Could not delete " + path);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] remaining = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (remaining.length != 4) {
+            System.err.println("Usage: IncrementalRanking [-D option=value ...] TopEmployers|TopJobTypesApproved "
+                    + "input state_directory output");
+            System.exit(2);
+        }
+        if (remaining[0].equals("TopEmployers")) {
+            TopEmployers.setDefaults(conf);
+            conf.setInt(KEY_COLUMN, TopEmployers.KEY_COLUMN);
+        } else if (remaining[0].equals("TopJobTypesApproved")) {
+            TopJobTypesApproved.setDefaults(conf);
+            conf.setInt(KEY_COLUMN, TopJobTypesApproved.KEY_COLUMN);
+        } else {
+            throw new IllegalArgumentException("Unknown job " + remaining[0]
+                    + ", expected TopEmployers or TopJobTypesApproved");
+        }
+        conf.setBoolean(KeyInterning.ENABLED, false); // The state holds the keys themselves
+        conf.setBoolean(ApproximateTopK.ENABLED, false);
+        boolean success = run(conf, remaining[0], new Path(remaining[1]), new Path(remaining[2]),
+                new Path(remaining[3]));
+        System.exit(success ? 0 : 1);
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * JSON helpers shared by the code that writes JSON for the globe, CubeServer and WorksiteGrid.
+ */
+public final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * @param value (String) - Any String
+     * @return Returns value as a JSON string, with quotes, backslashes and control characters escaped
+     */
+    public static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                quoted.append('\\').append(c);
+            else if (c < 0x20)
+                quoted.append(String.format("\\u%04x", (int) c));
+            else
+                quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,9 @@
+import java.io.IOException;
+
+/**
+ * Callback used to hand a key's bytes and its count to the caller, for example when a ByteKeyCountMap is flushed or a
+ * TopKRanking is written out.
+ */
+public interface KeyCountVisitor {
+    void visit(byte[] bytes, int start, int length, int count) throws IOException, InterruptedException;
+}
@@ -0,0 +1,236 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Key interning for the ranking jobs.  Instead of shuffling every Employer name or Job Title as Text, the mappers
+ * shuffle a stable 64-bit hash of the key (its id) as a LongWritable, and write each distinct <id, key> pair once to a
+ * dictionary file next to the reducers' output.  The reducers rank ids, and only the ids that make the final Top K
+ * are turned back into keys, by resolve(), once the job is done.
+ * <p>
+ * Two different keys with the same id would have their counts merged.  resolve() checks every dictionary entry of
+ * the winning ids and fails the run if one of them belongs to more than one key.  Checking the winners is enough:
+ * keys merged by a collision can only change the ranking by making their shared id a winner.  The chance of a
+ * collision among the few hundred thousand distinct keys of the dataset is about 1 in 400 million.
+ * <p>
+ * Configuration:
+ * h1b.keys.intern (boolean, default false) - Shuffle key ids instead of the keys
+ */
+public class KeyInterning {
+
+    public static final String ENABLED = "h1b.keys.intern";
+    public static final String DICTIONARY = "dictionary";
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * @param conf (Configuration) - Job Configuration
+     * @return Returns true if the job shuffles key ids
+     */
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getBoolean(ENABLED, false);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the key, followed by the splitmix64 finalizer so that keys differing only in their last
+     * bytes still spread over every bit of the id.  The id only depends on the key's bytes, so every map task gives a
+     * key the same id.
+     *
+     * @param bytes  (byte[]) - Array containing the key
+     * @param start  (int) - Offset of the key in bytes[]
+     * @param length (int) - Length of the key
+     * @return Returns the id of the key
+     */
+    public static long id(byte[] bytes, int start, int length) {
+        long h = FNV_OFFSET;
+        for (int i = start; i < start + length; i++) {
+            h ^= bytes[i] & 0xFF;
+            h *= FNV_PRIME;
+        }
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * Sets up a job whose CountingMapper shuffles ids: ids are summed by IdSumCombiner and ranked by IdTopKReducer,
+     * and the mappers' dictionaries are written to the job's output directory as dictionary-m-NNNNN SequenceFiles.
+     *
+     * @param job             (Job) - The ranking job
+     * @param inMemoryCombine (boolean) - True if the mappers aggregate in memory, so no combiner is needed
+     */
+    public static void configure(Job job, boolean inMemoryCombine) {
+        job.setMapOutputKeyClass(LongWritable.class);
+        job.setMapOutputValueClass(IntWritable.class);
+        if (!inMemoryCombine)
+            job.setCombinerClass(IdSumCombiner.class);
+        job.setReducerClass(IdTopKReducer.class);
+        job.setOutputKeyClass(LongWritable.class);
+        job.setOutputValueClass(IntWritable.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        MultipleOutputs.addNamedOutput(job, DICTIONARY, SequenceFileOutputFormat.class, LongWritable.class,
+                Text.class);
+    }
+
+    public static class IdSumCombiner extends Reducer<LongWritable, IntWritable, LongWritable, IntWritable> {
+
+        private final IntWritable outCount = new IntWritable();
+
+        /**
+         * Sums the partial counts of an id, like IntSumCombiner does for Text keys.
+         */
+        public void reduce(LongWritable key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+            int sum = 0;
+            for (IntWritable val : values) {
+                sum += val.get();
+            }
+            outCount.set(sum);
+            context.write(key, outCount);
+        }
+    }
+
+    /**
+     * TopKReducer for ids.  Each reducer writes the local Top K of its partition of the ids, which resolve() merges.
+     */
+    public static class IdTopKReducer extends Reducer<LongWritable, IntWritable, LongWritable, IntWritable> {
+
+        private final byte[] idBytes = new byte[8];
+        private final LongWritable outId = new LongWritable();
+        private final IntWritable outFreq = new IntWritable();
+        private TopKRanking ranking;
+        private long startNanos;
+        private long keys;
+        private long records;
+
+        protected void setup(Context context) throws IOException, InterruptedException {
+            startNanos = System.nanoTime();
+            ranking = new TopKRanking(context.getConfiguration().getInt(TopKReducer.K, 10));
+        }
+
+        public void reduce(LongWritable key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+            int freq = 0;
+            for (IntWritable val : values) {
+                freq += val.get();
+                records++;
+            }
+            putId(key.get(), idBytes);
+            ranking.offer(freq, idBytes, 0, idBytes.length);
+            keys++;
+        }
+
+        protected void cleanup(final Context context) throws IOException, InterruptedException {
+            ranking.forEachDescending(new KeyCountVisitor() {
+                public void visit(byte[] bytes, int start, int length, int count)
+                        throws IOException, InterruptedException {
+                    outId.set(getId(bytes, start));
+                    outFreq.set(count);
+                    context.write(outId, outFreq);
+                }
+            });
+            TopKReducer.publishMetrics(context, ranking, keys, records, startNanos);
+        }
+    }
+
+    /**
+     * Merges the reducers' local rankings of ids into the global Top K, looks the winning ids up in the mappers'
+     * dictionaries and writes the ranking of their keys to output/part-r-00000, exactly as
+     * TopKDriver.mergeLocalRankings() would have written the ranking of the keys themselves.
+     *
+     * @param conf    (Configuration) - Job Configuration
+     * @param fs      (FileSystem) - File system holding both directories
+     * @param partial (Path) - The job's output directory (part-r-* and dictionary-m-* files)
+     * @param output  (Path) - Final output directory
+     * @param k       (int) - Number of distinct frequencies to rank
+     */
+    public static void resolve(Configuration conf, FileSystem fs, Path partial, Path output, int k)
+            throws IOException, InterruptedException {
+        final byte[] idBytes = new byte[8];
+        TopKRanking idRanking = new TopKRanking(k);
+        LongWritable id = new LongWritable();
+        IntWritable freq = new IntWritable();
+        for (Path part : listFiles(fs, partial, "part-")) {
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(part))) {
+                while (reader.next(id, freq)) {
+                    putId(id.get(), idBytes);
+                    idRanking.offer(freq.get(), idBytes, 0, idBytes.length);
+                }
+            }
+        }
+
+        final Map<Long, Integer> winners = new HashMap<>();
+        idRanking.forEachDescending(new KeyCountVisitor() {
+            public void visit(byte[] bytes, int start, int length, int count) {
+                winners.put(getId(bytes, start), count);
+            }
+        });
+
+        Map<Long, byte[]> keys = new HashMap<>();
+        Text key = new Text();
+        for (Path part : listFiles(fs, partial, DICTIONARY + "-")) {
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(part))) {
+                while (reader.next(id, key)) {
+                    if (!winners.containsKey(id.get()))
+                        continue;
+                    byte[] known = keys.get(id.get());
+                    byte[] bytes = Arrays.copyOf(key.getBytes(), key.getLength());
+                    if (known == null)
+                        keys.put(id.get(), bytes);
+                    else if (!Arrays.equals(known, bytes))
+                        throw new IOException("Key id collision between \"" + new Text(known) + "\" and \"" + key
+                                + "\", rerun with -D " + ENABLED + "=false");
+                }
+            }
+        }
+
+        TopKRanking ranking = new TopKRanking(k);
+        for (Map.Entry<Long, Integer> winner : winners.entrySet()) {
+            byte[] bytes = keys.get(winner.getKey());
+            if (bytes == null)
+                throw new IOException("Key id " + winner.getKey() + " is missing from the dictionary");
+            ranking.offer(winner.getValue(), bytes, 0, bytes.length);
+        }
+        TopKDriver.writeRanking(conf, fs, ranking, output);
+    }
+
+    private static Path[] listFiles(FileSystem fs, Path dir, String prefix) throws IOException {
+        FileStatus[] statuses = fs.listStatus(dir);
+        Path[] paths = new Path[statuses.length];
+        int count = 0;
+        for (FileStatus status : statuses) {
+            if (status.getPath().getName().startsWith(prefix))
+                paths[count++] = status.getPath();
+        }
+        return Arrays.copyOf(paths, count);
+    }
+
+    private static void putId(long id, byte[] bytes) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) id;
+            id >>>= 8;
+        }
+    }
+
+    private static long getId(byte[] bytes, int start) {
+        long id = 0;
+        for (int i = start; i < start + 8; i++)
+            id = (id << 8) | (bytes[i] & 0xFF);
+        return id;
+    }
+}
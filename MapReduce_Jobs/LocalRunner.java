@@ -0,0 +1,265 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs TopEmployers or TopJobTypesApproved on a single machine, without HDFS, YARN or a shuffle, for a local copy of
+ * h1b_kaggle.csv.
+ * <p>
+ * The csv is memory-mapped and cut into splits on line boundaries.  The splits are mapped by a ForkJoinPool, every
+ * thread copying its splits in bulk, a chunk at a time, and counting the keys of the rows in place in the chunk into
+ * its own ByteKeyCountMap (the same per-row work as the job's mapper, see
+ * CsvKeyFinder and RowFilter, with in-mapper combining).  The per-thread maps are then summed and offered to a
+ * TopKRanking, like TopKReducer does, and the ranking is written to output/part-r-00000 in the same format as the
+ * Hadoop job.  The job's defaults and -D options (h1b.topk.k, h1b.filter.*) apply as they do on Hadoop.  The csv has
+ * to be uncompressed, with one row per line (h1b.csv.multiline is not supported).
+ * <p>
+ * Usage: LocalRunner [-D option=value ...] TopEmployers|TopJobTypesApproved input.csv output_directory
+ * <p>
+ * Configuration:
+ * h1b.local.threads (int, default number of cores) - Number of mapping threads
+ * h1b.local.splits.per.thread (int, default 4) - Splits per thread, more splits even out the threads' work
+ */
+public class LocalRunner {
+
+    public static final String THREADS = "h1b.local.threads";
+    public static final String SPLITS_PER_THREAD = "h1b.local.splits.per.thread";
+
+    private static final int MAX_SPLIT_BYTES = Integer.MAX_VALUE - 8; // Largest region a MappedByteBuffer can map
+    private static final int BOUNDARY_READ_BYTES = 64 * 1024;
+    private static final int CHUNK_BYTES = 1024 * 1024;
+
+    private final Configuration conf;
+    private final int keyColumn;
+
+    /**
+     * @param conf      (Configuration) - Job Configuration, with the job's defaults set
+     * @param keyColumn (int) - Column counted by the job (TopEmployers.KEY_COLUMN, TopJobTypesApproved.KEY_COLUMN)
+     */
+    public LocalRunner(Configuration conf, int keyColumn) {
+        this.conf = conf;
+        this.keyColumn = keyColumn;
+    }
+
+    /**
+     * Counts the keys of every row of input and writes their Top K to output.
+     *
+     * @param input  (File) - The csv file
+     * @param output (Path) - Output directory on the local file system, must not exist yet
+     * @return Returns the number of rows read
+     */
+    public long run(File input, Path output) throws IOException, InterruptedException {
+        if (new CompressionCodecFactory(conf).getCodec(new Path(input.getPath())) != null)
+            throw new IllegalArgumentException(input + " is compressed, LocalRunner only reads uncompressed csv files");
+        FileSystem fs = FileSystem.getLocal(conf).getRaw(); // No .crc files next to the output
+        if (fs.exists(output))
+            throw new FileAlreadyExistsException("Output directory " + output + " already exists");
+
+        int threads = conf.getInt(THREADS, Runtime.getRuntime().availableProcessors());
+        List<ByteKeyCountMap> counts = new ArrayList<>();
+        long rows = 0;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (RandomAccessFile file = new RandomAccessFile(input, "r"); FileChannel channel = file.getChannel()) {
+            long[] boundaries = splitBoundaries(channel, threads * conf.getInt(SPLITS_PER_THREAD, 4));
+            final ThreadLocal<SplitMapper> mappers = new ThreadLocal<>();
+            final List<SplitMapper> allMappers = new ArrayList<>();
+            List<Callable<Long>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < boundaries.length; i++) {
+                final MappedByteBuffer split = channel.map(FileChannel.MapMode.READ_ONLY, boundaries[i],
+                        boundaries[i + 1] - boundaries[i]);
+                tasks.add(new Callable<Long>() {
+                    public Long call() {
+                        SplitMapper mapper = mappers.get();
+                        if (mapper == null) {
+                            mapper = new SplitMapper();
+                            mappers.set(mapper);
+                            synchronized (allMappers) {
+                                allMappers.add(mapper);
+                            }
+                        }
+                        return mapper.map(split);
+                    }
+                });
+            }
+            for (Future<Long> result : pool.invokeAll(tasks))
+                rows += result.get();
+            for (SplitMapper mapper : allMappers)
+                counts.add(mapper.counts);
+        } catch (ExecutionException e) {
+            throw new IOException("Mapping " + input + " failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        TopKRanking ranking = reduce(counts, conf.getInt(TopKReducer.K, 10));
+        TopKDriver.writeRanking(conf, fs, ranking, output);
+        fs.create(new Path(output, "_SUCCESS")).close();
+        return rows;
+    }
+
+    /**
+     * Sums the per-thread counts, then offers every key and its total to a TopKRanking.
+     */
+    private static TopKRanking reduce(List<ByteKeyCountMap> counts, int k)
+            throws IOException, InterruptedException {
+        final ByteKeyCountMap totals = counts.isEmpty() ? new ByteKeyCountMap(Long.MAX_VALUE) : counts.get(0);
+        for (int i = 1; i < counts.size(); i++) {
+            counts.get(i).forEach(new KeyCountVisitor() {
+                public void visit(byte[] bytes, int start, int length, int count) {
+                    totals.add(bytes, start, length, count);
+                }
+            });
+        }
+        final TopKRanking ranking = new TopKRanking(k);
+        totals.forEach(new KeyCountVisitor() {
+            public void visit(byte[] bytes, int start, int length, int count) {
+                ranking.offer(count, bytes, start, length);
+            }
+        });
+        return ranking;
+    }
+
+    /**
+     * Cuts the file into about the given number of splits.  Every boundary but the first and last is moved to just
+     * after the next line break, so each line belongs to exactly one split, like FileInputFormat's splits.
+     *
+     * @return Returns the split boundaries, from 0 to the file length
+     */
+    private static long[] splitBoundaries(FileChannel channel, int splits) throws IOException {
+        long length = channel.size();
+        splits = (int) Math.max(splits, length / MAX_SPLIT_BYTES + 1);
+        long[] boundaries = new long[splits + 1];
+        ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_READ_BYTES);
+        int count = 1;
+        for (int i = 1; i < splits; i++) {
+            long boundary = Math.max(length / splits * i, boundaries[count - 1]);
+            boundary = nextLineStart(channel, boundary, buffer);
+            if (boundary > boundaries[count - 1] && boundary < length)
+                boundaries[count++] = boundary;
+        }
+        boundaries[count++] = length;
+        return Arrays.copyOf(boundaries, count);
+    }
+
+    /**
+     * @return Returns the offset just after the first line break at or after position, or the file length
+     */
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0)
+                return channel.size();
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n')
+                    return position + i + 1;
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Maps splits on one thread.  Does what FilteringTextInputFormat's record reader and the job's mapper do with
+     * every line, and keeps the counts for all of the splits the thread maps.
+     */
+    private class SplitMapper {
+
+        private final ByteKeyCountMap counts = new ByteKeyCountMap(Long.MAX_VALUE);
+        private final CsvKeyFinder finder = new CsvKeyFinder(keyColumn);
+        private final RowFilter filter = RowFilter.get(conf);
+        private final CsvFieldScanner filterScanner = filter == null ? null
+                : new CsvFieldScanner(filter.columnsNeeded());
+        private byte[] chunk = new byte[CHUNK_BYTES];
+
+        /**
+         * Copies the split into chunk[] in bulk and maps every complete line in place.  The unfinished line at the end
+         * of a chunk is moved to the front of chunk[] and completed by the next read.
+         *
+         * @param split (MappedByteBuffer) - The split, starting at the beginning of a line
+         * @return Returns the number of lines in the split
+         */
+        long map(MappedByteBuffer split) {
+            long rows = 0;
+            int filled = 0;  // Bytes in chunk[], starting with the unfinished line of the last read
+            int scanned = 0; // Bytes of chunk[] already searched for a line break
+            while (split.hasRemaining()) {
+                if (filled == chunk.length)
+                    chunk = Arrays.copyOf(chunk, chunk.length * 2); // A line longer than a chunk
+                int read = Math.min(chunk.length - filled, split.remaining());
+                split.get(chunk, filled, read);
+                filled += read;
+                int lineStart = 0;
+                for (int i = scanned; i < filled; i++) {
+                    if (chunk[i] == '\n') {
+                        mapLine(lineStart, i - lineStart);
+                        rows++;
+                        lineStart = i + 1;
+                    }
+                }
+                filled -= lineStart;
+                System.arraycopy(chunk, lineStart, chunk, 0, filled);
+                scanned = filled;
+            }
+            if (filled > 0) { // Last line of the file, not terminated
+                mapLine(0, filled);
+                rows++;
+            }
+            return rows;
+        }
+
+        private void mapLine(int start, int length) {
+            if (length > 0 && chunk[start + length - 1] == '\r') // Same as LineRecordReader, which drops "\r\n"
+                length--;
+            if (filter != null) {
+                filterScanner.scan(chunk, start, length, filter.columnsNeeded());
+                if (!filter.accept(filterScanner, chunk))
+                    return;
+            }
+            if (finder.find(chunk, start, length))
+                counts.add(chunk, finder.start(), finder.length(), 1);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] remaining = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (remaining.length != 3) {
+            System.err.println("Usage: LocalRunner [-D option=value ...] TopEmployers|TopJobTypesApproved "
+                    + "input.csv output_directory");
+            System.exit(2);
+        }
+        int keyColumn;
+        if (remaining[0].equals("TopEmployers")) {
+            TopEmployers.setDefaults(conf);
+            keyColumn = TopEmployers.KEY_COLUMN;
+        } else if (remaining[0].equals("TopJobTypesApproved")) {
+            TopJobTypesApproved.setDefaults(conf);
+            keyColumn = TopJobTypesApproved.KEY_COLUMN;
+        } else {
+            throw new IllegalArgumentException("Unknown job " + remaining[0]
+                    + ", expected TopEmployers or TopJobTypesApproved");
+        }
+
+        long startTime = System.nanoTime();
+        long rows = new LocalRunner(conf, keyColumn).run(new File(remaining[1]), new Path(remaining[2]));
+        System.out.println(remaining[0] + ": " + rows + " rows in " + (System.nanoTime() - startTime) / 1000000
+                + " ms using " + conf.getInt(THREADS, Runtime.getRuntime().availableProcessors()) + " threads");
+    }
+}
@@ -0,0 +1,128 @@
+import org.apache.hadoop.conf.Configuration;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Simple column predicates that are evaluated by the record readers (FilteringTextInputFormat and
+ * ColumnarInputFormat) before a row is handed to the mapper.  Rows that are rejected are never decoded and never reach
+ * map(); they are only counted in the ROWS_PRUNED and BYTES_PRUNED counters.  BYTES_PRUNED is the size of the
+ * rejected csv lines and is only counted by FilteringTextInputFormat: a columnar row has no size of its own once its
+ * columns are split into row groups, so runs over columnar files report their pruned rows in ROWS_PRUNED alone.
+ * <p>
+ * On csv rows the predicates only look at the raw bytes of the columns they need, so rejecting a row costs a partial
+ * scan of it.
+ * <p>
+ * Configuration (every predicate that is set must hold for a row to be kept):
+ * h1b.filter.status.equals (String) - CASE_STATUS is equal to the value
+ * h1b.filter.status.prefix (String) - CASE_STATUS starts with the value
+ * h1b.filter.year.min (int) - YEAR is at least the value, rows with a blank YEAR are rejected
+ * h1b.filter.year.max (int) - YEAR is at most the value, rows with a blank YEAR are rejected
+ */
+public class RowFilter {
+
+    public static final String STATUS_EQUALS = "h1b.filter.status.equals";
+    public static final String STATUS_PREFIX = "h1b.filter.status.prefix";
+    public static final String YEAR_MIN = "h1b.filter.year.min";
+    public static final String YEAR_MAX = "h1b.filter.year.max";
+
+    public enum Counters {
+        ROWS_PRUNED,
+        BYTES_PRUNED
+    }
+
+    private final byte[] statusEquals;
+    private final byte[] statusPrefix;
+    private final boolean checkYear;
+    private final int yearMin;
+    private final int yearMax;
+
+    private RowFilter(Configuration conf) {
+        statusEquals = bytes(conf.get(STATUS_EQUALS));
+        statusPrefix = bytes(conf.get(STATUS_PREFIX));
+        checkYear = conf.get(YEAR_MIN) != null || conf.get(YEAR_MAX) != null;
+        yearMin = conf.getInt(YEAR_MIN, Integer.MIN_VALUE + 1); // NULL_INT never falls in the range
+        yearMax = conf.getInt(YEAR_MAX, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param conf (Configuration) - Job Configuration
+     * @return Returns true if any predicate is set
+     */
+    public static boolean isConfigured(Configuration conf) {
+        return conf.get(STATUS_EQUALS) != null || conf.get(STATUS_PREFIX) != null || conf.get(YEAR_MIN) != null
+                || conf.get(YEAR_MAX) != null;
+    }
+
+    /**
+     * @param conf (Configuration) - Job Configuration
+     * @return Returns the filter described by the Configuration, or null if no predicate is set
+     */
+    public static RowFilter get(Configuration conf) {
+        return isConfigured(conf) ? new RowFilter(conf) : null;
+    }
+
+    /**
+     * Sets the CASE_STATUS prefix predicate unless one was already given, for example on the command line with -D.
+     *
+     * @param conf   (Configuration) - Job Configuration
+     * @param prefix (String) - The prefix CASE_STATUS has to start with
+     */
+    public static void setDefaultStatusPrefix(Configuration conf, String prefix) {
+        if (conf.get(STATUS_PREFIX) == null && conf.get(STATUS_EQUALS) == null)
+            conf.set(STATUS_PREFIX, prefix);
+    }
+
+    /**
+     * @return Returns the number of csv columns, counting from column 0, the predicates need scanned
+     */
+    public int columnsNeeded() {
+        return checkYear ? H1bColumns.YEAR + 1 : H1bColumns.CASE_STATUS + 1;
+    }
+
+    /**
+     * @return Returns the columns the predicates read, so that they can be loaded from columnar files
+     */
+    public int[] columns() {
+        return checkYear ? new int[]{H1bColumns.CASE_STATUS, H1bColumns.YEAR} : new int[]{H1bColumns.CASE_STATUS};
+    }
+
+    /**
+     * @param scanner (CsvFieldScanner) - Scanner that has scanned at least columnsNeeded() columns of row
+     * @param row     (byte[]) - The bytes of the row
+     * @return Returns true if the row passes every predicate
+     */
+    public boolean accept(CsvFieldScanner scanner, byte[] row) {
+        if (scanner.columns() < columnsNeeded())
+            return false;
+        if (statusEquals != null && !scanner.valueEquals(H1bColumns.CASE_STATUS, statusEquals))
+            return false;
+        if (statusPrefix != null && !scanner.startsWith(H1bColumns.CASE_STATUS, statusPrefix))
+            return false;
+        if (checkYear) {
+            int year = H1bColumns.parseInt(row, scanner.start(H1bColumns.YEAR),
+                    scanner.length(H1bColumns.YEAR));
+            return year >= yearMin && year <= yearMax;
+        }
+        return true;
+    }
+
+    /**
+     * @param record (H1bRecord) - A row of a columnar file, with the columns() loaded
+     * @return Returns true if the row passes every predicate
+     */
+    public boolean accept(H1bRecord record) {
+        if (statusEquals != null && !record.valueEquals(H1bColumns.CASE_STATUS, statusEquals))
+            return false;
+        if (statusPrefix != null && !record.startsWith(H1bColumns.CASE_STATUS, statusPrefix))
+            return false;
+        if (checkYear) {
+            int year = record.getInt(H1bColumns.YEAR);
+            return year >= yearMin && year <= yearMax;
+        }
+        return true;
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+}
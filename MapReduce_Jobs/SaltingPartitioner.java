@@ -0,0 +1,100 @@
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Partitioner for ranking jobs with skewed keys, such as INFOSYS LIMITED among the employers or PROGRAMMER ANALYST
+ * among the job titles.  Keys are partitioned like HashPartitioner does, except for the hot keys found by
+ * HotKeySampler: the records of a hot key are dealt out round-robin over all of the reducers, so that no single
+ * reducer receives all of them.  Each map task starts the rotation at its own offset (its task partition): with
+ * in-mapper combining a task often writes a hot key only once, and if every task started at the same reducer they
+ * would all send it there.
+ * <p>
+ * Every reducer then only holds part of a hot key's count, so TopKReducer does not rank hot keys.  It writes their
+ * partial counts next to its local ranking, and TopKDriver.mergeLocalRankings() adds them back up before offering
+ * them to the global ranking.
+ * <p>
+ * The hot keys are passed to the tasks in the job Configuration, Base64 encoded, see setHotKeys().
+ * <p>
+ * Configuration:
+ * h1b.skew.enabled (boolean, default false) - Sample the input for hot keys and spread them over the reducers, when
+ * ranking with more than one reducer
+ * h1b.skew.hot.keys (String, set by TopKDriver) - The hot keys
+ */
+public class SaltingPartitioner extends Partitioner<Text, Writable> implements Configurable {
+
+    public static final String ENABLED = "h1b.skew.enabled";
+    public static final String HOT_KEYS = "h1b.skew.hot.keys";
+
+    private Configuration conf;
+    private Set<Text> hotKeys;
+    private int next; // Reducer the next record of a hot key goes to, rotated from the key's own partition
+
+    /**
+     * @param conf (Configuration) - Job Configuration
+     * @return Returns true if hot keys should be spread over the reducers
+     */
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getBoolean(ENABLED, false);
+    }
+
+    /**
+     * @param conf    (Configuration) - Job Configuration
+     * @param hotKeys (Collection<Text>) - Keys to spread over the reducers
+     */
+    public static void setHotKeys(Configuration conf, Collection<Text> hotKeys) {
+        StringBuilder encoded = new StringBuilder();
+        for (Text key : hotKeys) {
+            if (encoded.length() > 0)
+                encoded.append(',');
+            encoded.append(Base64.getEncoder().encodeToString(key.copyBytes()));
+        }
+        conf.set(HOT_KEYS, encoded.toString());
+    }
+
+    /**
+     * @param conf (Configuration) - Job Configuration
+     * @return Returns the hot keys set with setHotKeys(), or null if there are none
+     */
+    public static Set<Text> getHotKeys(Configuration conf) {
+        String encoded = conf.get(HOT_KEYS, "");
+        if (encoded.isEmpty())
+            return null;
+        Set<Text> hotKeys = new HashSet<>();
+        for (String key : encoded.split(","))
+            hotKeys.add(new Text(Base64.getDecoder().decode(key)));
+        return hotKeys;
+    }
+
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        hotKeys = getHotKeys(conf);
+        next = conf.getInt(MRJobConfig.TASK_PARTITION, 0);
+    }
+
+    public Configuration getConf() {
+        return conf;
+    }
+
+    /**
+     * @param key           (Text) - The map output key
+     * @param value         (Writable) - The map output value, not used
+     * @param numPartitions (int) - Number of reducers
+     * @return Returns the key's hash partition, or the next reducer in turn for hot keys
+     */
+    public int getPartition(Text key, Writable value, int numPartitions) {
+        int partition = (key.hashCode() & Integer.MAX_VALUE) % numPartitions; // Same as HashPartitioner
+        if (hotKeys == null || !hotKeys.contains(key))
+            return partition;
+        next = (next + 1) % numPartitions;
+        return (partition + next) % numPartitions;
+    }
+}
@@ -0,0 +1,301 @@
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Space-Saving summary (Metwally et al.) of the frequencies of a stream of byte[] keys, in a fixed number of counters.
+ * <p>
+ * Every monitored key has a count and an error: its true frequency is between count - error and count.  When a key
+ * that is not monitored arrives and every counter is taken, it replaces the key with the smallest count, taking over
+ * that count as its error.  With capacity counters, the error of any key is at most total() / capacity, and every key
+ * whose frequency is above that is guaranteed to be monitored.
+ * <p>
+ * The counters are kept in a min-heap ordered by count, with an open-addressing hash table from key to counter, so
+ * offer() costs O(log capacity).  Each counter keeps its own key buffer, which is reused when the counter is taken
+ * over by another key, so offering keys only allocates while the buffers grow.
+ * <p>
+ * The summary is a Writable so that the mappers can send it to the reducer, which merges the summaries with
+ * ApproximateTopK.SummaryReducer.
+ */
+public class SpaceSavingSummary implements Writable {
+
+    private int capacity;
+    private long total;
+    private int size;
+
+    private byte[][] keys;
+    private int[] keyLengths;
+    private int[] hashes;
+    private long[] counts;
+    private long[] errors;
+    private int[] heap;          // counter indexes, heap[0] has the smallest count
+    private int[] heapPositions; // position of each counter in heap[]
+    private int[] slots;         // counter index + 1, 0 means the slot is empty
+
+    /**
+     * Used by Hadoop to deserialize summaries, see readFields().
+     */
+    public SpaceSavingSummary() {
+        this(1);
+    }
+
+    /**
+     * @param capacity (int) - Number of counters
+     */
+    public SpaceSavingSummary(int capacity) {
+        init(capacity);
+    }
+
+    private void init(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1, was " + capacity);
+        this.capacity = capacity;
+        total = 0;
+        size = 0;
+        keys = new byte[capacity][];
+        keyLengths = new int[capacity];
+        hashes = new int[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        heap = new int[capacity];
+        heapPositions = new int[capacity];
+        slots = new int[Integer.highestOneBit(capacity) * 4]; // Load factor below 1/2
+    }
+
+    /**
+     * Counts one occurrence of the key stored in bytes[start, start + length).
+     *
+     * @param bytes  (byte[]) - Array containing the key
+     * @param start  (int) - Offset of the key in bytes[]
+     * @param length (int) - Length of the key
+     */
+    public void offer(byte[] bytes, int start, int length) {
+        total++;
+        int hash = hash(bytes, start, length);
+        int slot = find(hash, bytes, start, length);
+        if (slots[slot] != 0) {
+            int counter = slots[slot] - 1;
+            counts[counter]++;
+            siftDown(heapPositions[counter]);
+            return;
+        }
+
+        int counter;
+        if (size < capacity) {
+            counter = size++;
+            counts[counter] = 1;
+            errors[counter] = 0;
+            heap[counter] = counter;
+            heapPositions[counter] = counter;
+            setKey(counter, hash, bytes, start, length);
+            slots[slot] = counter + 1;
+            siftUp(counter);
+            return;
+        }
+
+        // Take over the counter with the smallest count
+        counter = heap[0];
+        removeSlot(counter);
+        setKey(counter, hash, bytes, start, length);
+        slots[find(hash, bytes, start, length)] = counter + 1;
+        errors[counter] = counts[counter];
+        counts[counter]++;
+        siftDown(0);
+    }
+
+    /**
+     * @return Returns the number of keys offered
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * @return Returns the number of monitored keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Returns the number of counters
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Returns the largest frequency a key that is not monitored can have: the smallest count once every
+     * counter is taken, 0 before that
+     */
+    public long minCount() {
+        return size < capacity ? 0 : counts[heap[0]];
+    }
+
+    /**
+     * @param counter (int) - Counter index, from 0 to size() - 1
+     * @return Returns the array holding the counter's key, from index 0 to keyLength(counter)
+     */
+    public byte[] key(int counter) {
+        return keys[counter];
+    }
+
+    /**
+     * @param counter (int) - Counter index, from 0 to size() - 1
+     * @return Returns the length of the counter's key
+     */
+    public int keyLength(int counter) {
+        return keyLengths[counter];
+    }
+
+    /**
+     * @param counter (int) - Counter index, from 0 to size() - 1
+     * @return Returns the upper bound on the frequency of the counter's key
+     */
+    public long count(int counter) {
+        return counts[counter];
+    }
+
+    /**
+     * @param counter (int) - Counter index, from 0 to size() - 1
+     * @return Returns how much count(counter) may overestimate the frequency of the counter's key
+     */
+    public long error(int counter) {
+        return errors[counter];
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, capacity);
+        WritableUtils.writeVLong(out, total);
+        WritableUtils.writeVInt(out, size);
+        for (int counter = 0; counter < size; counter++) {
+            WritableUtils.writeVInt(out, keyLengths[counter]);
+            out.write(keys[counter], 0, keyLengths[counter]);
+            WritableUtils.writeVLong(out, counts[counter]);
+            WritableUtils.writeVLong(out, errors[counter]);
+        }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        int newCapacity = WritableUtils.readVInt(in);
+        if (newCapacity != capacity)
+            init(newCapacity);
+        else
+            Arrays.fill(slots, 0);
+        total = WritableUtils.readVLong(in);
+        size = WritableUtils.readVInt(in);
+        for (int counter = 0; counter < size; counter++) {
+            int length = WritableUtils.readVInt(in);
+            if (keys[counter] == null || keys[counter].length < length)
+                keys[counter] = new byte[length];
+            in.readFully(keys[counter], 0, length);
+            keyLengths[counter] = length;
+            hashes[counter] = hash(keys[counter], 0, length);
+            slots[find(hashes[counter], keys[counter], 0, length)] = counter + 1;
+            counts[counter] = WritableUtils.readVLong(in);
+            errors[counter] = WritableUtils.readVLong(in);
+            heap[counter] = counter;
+            heapPositions[counter] = counter;
+        }
+        for (int i = size / 2 - 1; i >= 0; i--)
+            siftDown(i);
+    }
+
+    private void setKey(int counter, int hash, byte[] bytes, int start, int length) {
+        if (keys[counter] == null || keys[counter].length < length)
+            keys[counter] = new byte[Math.max(length, 16)];
+        System.arraycopy(bytes, start, keys[counter], 0, length);
+        keyLengths[counter] = length;
+        hashes[counter] = hash;
+    }
+
+    /**
+     * @return Returns the slot holding the key, or the empty slot where it would go
+     */
+    private int find(int hash, byte[] bytes, int start, int length) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int counter = slots[slot] - 1;
+            if (hashes[counter] == hash && keyEquals(counter, bytes, start, length))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Removes the counter's key from the hash table, shifting back the entries after it so that no lookup chain is
+     * broken (linear probing without tombstones).
+     */
+    private void removeSlot(int counter) {
+        int mask = slots.length - 1;
+        int slot = find(hashes[counter], keys[counter], 0, keyLengths[counter]);
+        slots[slot] = 0;
+        int next = (slot + 1) & mask;
+        while (slots[next] != 0) {
+            int home = hashes[slots[next] - 1] & mask;
+            // Move the entry back if its home slot is not between the hole and its current slot
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                slots[slot] = slots[next];
+                slots[next] = 0;
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    private boolean keyEquals(int counter, byte[] bytes, int start, int length) {
+        if (keyLengths[counter] != length)
+            return false;
+        byte[] key = keys[counter];
+        for (int i = 0; i < length; i++) {
+            if (key[i] != bytes[start + i])
+                return false;
+        }
+        return true;
+    }
+
+    private void siftUp(int position) {
+        int counter = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[counter])
+                break;
+            heap[position] = heap[parent];
+            heapPositions[heap[position]] = position;
+            position = parent;
+        }
+        heap[position] = counter;
+        heapPositions[counter] = position;
+    }
+
+    private void siftDown(int position) {
+        int counter = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]])
+                child++;
+            if (counts[heap[child]] >= counts[counter])
+                break;
+            heap[position] = heap[child];
+            heapPositions[heap[position]] = position;
+            position = child;
+        }
+        heap[position] = counter;
+        heapPositions[counter] = position;
+    }
+
+    private static int hash(byte[] bytes, int start, int length) {
+        int hash = 1;
+        for (int i = start; i < start + length; i++)
+            hash = 31 * hash + bytes[i];
+        return hash ^ (hash >>> 16);
+    }
+}
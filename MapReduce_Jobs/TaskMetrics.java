@@ -0,0 +1,195 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskCounter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-task metrics of the ranking jobs.  The job counters only hold totals, so every CountingMapper and TopKReducer
+ * task also writes its own numbers to a small file, which shows which splits are slow or skewed.
+ * <p>
+ * Each task attempt writes a single line of tab separated name=value pairs to h1b.metrics.dir/<attempt id>, e.g.
+ * <p>
+ * task=attempt_1520_0001_m_000003_0  split=hdfs://.../h1b_kaggle.csv:402653184+134217728  elapsed_ms=8412  rows=...
+ * <p>
+ * TopKDriver points h1b.metrics.dir at output/_metrics (skipped by FileInputFormat like any other _ file) and prints
+ * printSummary() once the job is done.
+ * <p>
+ * Configuration:
+ * h1b.metrics.tasks (boolean, default true) - Have TopKDriver collect the per-task metrics
+ * h1b.metrics.dir (String, set by TopKDriver) - Directory of the per-task metrics files, none are written if unset
+ */
+public class TaskMetrics {
+
+    public static final String ENABLED = "h1b.metrics.tasks";
+    public static final String DIR = "h1b.metrics.dir";
+    public static final String DIR_NAME = "_metrics";
+
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * @param context (TaskAttemptContext) - The context of the task
+     */
+    public TaskMetrics(TaskAttemptContext context) {
+        add("task", context.getTaskAttemptID().toString());
+    }
+
+    /**
+     * @param name  (String) - Name of the metric, without tabs, = or line breaks
+     * @param value (String) - Its value
+     * @return Returns this TaskMetrics
+     */
+    public TaskMetrics add(String name, String value) {
+        if (line.length() > 0)
+            line.append('\t');
+        line.append(name).append('=').append(value.replace('\t', ' ').replace('\n', ' '));
+        return this;
+    }
+
+    /**
+     * @param name  (String) - Name of the metric, without tabs, = or line breaks
+     * @param value (long) - Its value
+     * @return Returns this TaskMetrics
+     */
+    public TaskMetrics add(String name, long value) {
+        return add(name, Long.toString(value));
+    }
+
+    /**
+     * Writes the metrics to h1b.metrics.dir/<attempt id>, if h1b.metrics.dir is set.
+     *
+     * @param context (TaskAttemptContext) - The context of the task
+     */
+    public void write(TaskAttemptContext context) throws IOException {
+        Configuration conf = context.getConfiguration();
+        String dir = conf.get(DIR);
+        if (dir == null)
+            return;
+        Path file = new Path(dir, context.getTaskAttemptID().toString());
+        try (FSDataOutputStream out = file.getFileSystem(conf).create(file, true)) {
+            out.write(line.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Reads back the metrics written by the tasks of a job.  When a task ran more than once (failed or speculative
+     * attempts), only its last attempt is kept.
+     *
+     * @param conf (Configuration) - Job Configuration
+     * @param dir  (Path) - The h1b.metrics.dir of the job
+     * @return Returns the metrics of each task, by task id
+     */
+    public static Map<String, Map<String, String>> read(Configuration conf, Path dir) throws IOException {
+        Map<String, Map<String, String>> tasks = new TreeMap<>();
+        FileSystem fs = dir.getFileSystem(conf);
+        if (!fs.exists(dir))
+            return tasks;
+        List<Path> files = new ArrayList<>();
+        for (FileStatus status : fs.listStatus(dir))
+            files.add(status.getPath());
+        Collections.sort(files); // Attempt ids sort in attempt order
+        for (Path file : files) {
+            Map<String, String> metrics = new HashMap<>();
+            try (FSDataInputStream in = fs.open(file);
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line = reader.readLine();
+                if (line == null)
+                    continue;
+                for (String pair : line.split("\t")) {
+                    int equals = pair.indexOf('=');
+                    if (equals > 0)
+                        metrics.put(pair.substring(0, equals), pair.substring(equals + 1));
+                }
+            }
+            String attempt = metrics.get("task");
+            if (attempt != null)
+                tasks.put(TaskAttemptID.forName(attempt).getTaskID().toString(), metrics);
+        }
+        return tasks;
+    }
+
+    /**
+     * Prints where the rows went and where the map time went, from the job's counters, then the spread of the map
+     * tasks' elapsed times and the slowest one, from the per-task metrics.
+     *
+     * @param job        (Job) - The finished job
+     * @param metricsDir (Path) - The job's h1b.metrics.dir, or null if none was set
+     * @param out        (PrintStream) - Where to print the summary
+     */
+    public static void printSummary(Job job, Path metricsDir, PrintStream out) throws IOException {
+        Counters counters = job.getCounters();
+        long rows = counters.findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue();
+        long malformed = counters.findCounter(CountingMapper.Counters.ROWS_MALFORMED).getValue();
+        long blank = counters.findCounter(CountingMapper.Counters.ROWS_BLANK_KEY).getValue();
+        long shortKeys = counters.findCounter(CountingMapper.Counters.ROWS_SHORT_KEY).getValue();
+        long keys = counters.findCounter(CountingMapper.Counters.KEYS_COUNTED).getValue();
+        long mapOutput = counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue();
+        long combineInput = counters.findCounter(TaskCounter.COMBINE_INPUT_RECORDS).getValue();
+        long combineOutput = counters.findCounter(TaskCounter.COMBINE_OUTPUT_RECORDS).getValue();
+        long reduceInput = counters.findCounter(TaskCounter.REDUCE_INPUT_RECORDS).getValue();
+
+        out.println("Summary of " + job.getJobName() + ":");
+        out.println("  Rows:      " + rows + " mapped, "
+                + counters.findCounter(RowFilter.Counters.ROWS_PRUNED).getValue() + " pruned by the record reader, "
+                + (malformed + blank + shortKeys) + " rejected (" + malformed + " malformed, " + blank
+                + " blank key, " + shortKeys + " short key)");
+        out.println("  Keys:      " + keys + " counted, " + mapOutput + " records written by the mappers ("
+                + ratio(keys, mapOutput) + " combined in the mappers), "
+                + counters.findCounter(CountingMapper.Counters.KEY_BYTES_WRITTEN).getValue() + " key bytes");
+        if (combineInput > 0)
+            out.println("  Combiner:  " + combineInput + " records in, " + combineOutput + " out ("
+                    + ratio(combineInput, combineOutput) + ")");
+        out.println("  Reducers:  " + reduceInput + " records in (" + ratio(keys, reduceInput) + " overall), "
+                + counters.findCounter(TaskCounter.REDUCE_INPUT_GROUPS).getValue() + " keys, "
+                + counters.findCounter(TopKReducer.Counters.TOPK_INSERTIONS).getValue() + " Top K insertions, "
+                + counters.findCounter(TopKReducer.Counters.TOPK_EVICTIONS).getValue() + " evictions");
+        long mapNanos = counters.findCounter(CountingMapper.Counters.MAP_NANOS).getValue();
+        out.println("  Map time:  " + millis(counters.findCounter(CountingMapper.Counters.READ_NANOS).getValue())
+                + " ms reading rows, " + millis(mapNanos) + " ms finding and counting keys ("
+                + (rows == 0 ? 0 : mapNanos / rows) + " ns per row), "
+                + millis(counters.findCounter(CountingMapper.Counters.FLUSH_NANOS).getValue()) + " ms flushing");
+
+        if (metricsDir == null)
+            return;
+        List<Map<String, String>> maps = new ArrayList<>();
+        for (Map.Entry<String, Map<String, String>> task : read(job.getConfiguration(), metricsDir).entrySet()) {
+            if (task.getKey().contains("_m_") && task.getValue().containsKey("elapsed_ms"))
+                maps.add(task.getValue());
+        }
+        if (maps.isEmpty())
+            return;
+        maps.sort((a, b) -> Long.compare(Long.parseLong(a.get("elapsed_ms")), Long.parseLong(b.get("elapsed_ms"))));
+        Map<String, String> slowest = maps.get(maps.size() - 1);
+        out.println("  Map tasks: " + maps.size() + ", elapsed min " + maps.get(0).get("elapsed_ms") + " / median "
+                + maps.get(maps.size() / 2).get("elapsed_ms") + " / max " + slowest.get("elapsed_ms")
+                + " ms, slowest " + slowest.get("task") + " (" + slowest.get("split") + ", " + slowest.get("rows")
+                + " rows)");
+        out.println("  Per-task metrics in " + metricsDir);
+    }
+
+    private static String ratio(long in, long out) {
+        return out == 0 ? "-" : String.format("%.1fx", (double) in / out);
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1000000;
+    }
+}
@@ -2,27 +2,25 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.TreeMap;
 
 public class TopEmployers {
-    public static class TokenizerMapper
-            extends Mapper<Object, Text, Text, IntWritable> {
 
-        private final static IntWritable one = new IntWritable(1);
-        private String employer;
+    public static final int KEY_COLUMN = H1bColumns.EMPLOYER_NAME;
+
+    public static class TokenizerMapper extends CountingMapper<Text> {
+
+        private final CsvKeyFinder finder = new CsvKeyFinder(KEY_COLUMN);
 
         /**
-         * Writes a <Text, IntWritable> key/value pair to the Context.
-         * The Text object will contain the Employer's name, and the IntWritable will be wrapping an int value of 1
-         * which will be used for a frequency count in the combiner.
+         * Counts the Employer's name of this row using CountingMapper.emit(), which either writes a <Text, IntWritable>
+         * key/value pair to the Context with an int value of 1 for the combiner, or aggregates it in memory.
+         * <p>
+         * The row is scanned in place by a CsvKeyFinder, which handles employer names that contain commas and filters
+         * out employer entries left blank, and the employer's bytes are passed on without building any Strings.
          *
          * @param key     (Object) - Input key.  Not used in this function.
          * @param value   (Text) - value is the Text object wrapping a row in the dataset csv
@@ -30,38 +28,37 @@ public class TopEmployers {
          */
         public void map(Object key, Text value, Context context)
                 throws IOException, InterruptedException {
-            employer = getEmployer(value.toString().split(","));
-            if (employer.length() > 1) // Filter out employer entries left blank
-                context.write(new Text(employer), one);
+            if (finder.find(value.getBytes(), value.getLength()))
+                emit(value.getBytes(), finder.start(), finder.length(), context);
+            else
+                reject(finder.rejection());
         }
+    }
+
+    /**
+     * Counts the Employer's name of each row when reading the columnar files written by ColumnarConverter.  Only the
+     * EMPLOYER_NAME column is loaded from the files.
+     */
+    public static class ColumnarMapper extends CountingMapper<H1bRecord> {
 
         /**
-         * This helper function is necessary because of the difficulties of parsing a csv file. Some of the employer
-         * names have commas in them, meaning that using split(",") on a row from the csv (comma separated value file)
-         * would not result in a clean separation of the columns.  If the employer's name contains a comma in it, then
-         * it will be split across multiple elements of row[].
-         *
-         * @param row - A String array of a csv line split by ","
-         * @return A string of the employer
+         * @param key     (Object) - Input key.  Not used in this function.
+         * @param record  (H1bRecord) - A row of the dataset
+         * @param context (Context) - The Context that we will be writing map output <key, value> pairs to
          */
-        public String getEmployer(String[] row) {
-            String employer = "";
-            int index = 2; //starting index of employer
-
-            // Build the string of the employer's name
-            while (index < row.length) {
-                String temp = row[index];
-                if (temp.length() < 1) //account for records where employer or unexpected behavior is occurring
-                    return employer;
-                employer += temp;
-
-                if (temp.charAt(temp.length() - 1) == '"') // reached end of employer's name
-                    break;
-                employer += ",";
-                index++;
+        public void map(Object key, H1bRecord record, Context context)
+                throws IOException, InterruptedException {
+            // Filter out employer entries left blank
+            if (record.isNull(H1bColumns.EMPLOYER_NAME)) {
+                reject(CsvKeyFinder.Rejection.BLANK);
+                return;
             }
-            //return employer's name without the quotes, commas included if they exist
-            return employer.substring(1, employer.length() - 1);
+            if (record.length(H1bColumns.EMPLOYER_NAME) <= 1) {
+                reject(CsvKeyFinder.Rejection.SHORT);
+                return;
+            }
+            emit(record.bytes(H1bColumns.EMPLOYER_NAME), record.start(H1bColumns.EMPLOYER_NAME),
+                    record.length(H1bColumns.EMPLOYER_NAME), context);
         }
     }
 
@@ -89,111 +86,28 @@ public class TopEmployers {
         }
     }
 
-    public static class TopTenReducer
-            extends Reducer<Text, IntWritable, Text, IntWritable> {
-
-        /**
-         * topTenEmployers will be a TreeMap with keys = int frequency counts, and values = LinkedList of Employer Names
-         * (Text Objects) that have the corresponding frequency count specified by their key. The TreeMap is ranked by
-         * frequency count in descending order.
-         * The values must be LinkedLists if you want to include Employer Names that have the same frequency counts (are
-         * tied for their place in the top ten).  While this may only only occur on rare occasion, it did not slow
-         * down execution times much.
-         */
-        private TreeMap<Integer, LinkedList<Text>> topTenEmployers = new TreeMap<>();
-        private Text employer;
-
-        /**
-         * Reduce the combiner frequency outputs for a single employer into its total frequency count, and offer that
-         * employer's name and its frequency to the Top Ten helper function that will determine where, if anywhere it
-         * belongs in the Top Ten.
-         *
-         * @param key     (Text) - Text object wrapping the employer's name String
-         * @param values  (Iterable<IntWritable>) - The Iterable containing the frequency counts (as IntWritables) for
-         *                the corresponding employer output by the combiners.
-         * @param context Unused, but required as a parameter.
-         */
-        public void reduce(Text key, Iterable<IntWritable> values, Context context)
-                throws IOException, InterruptedException {
-            int freq = 0;
-            // Sum the frequencies for this key (Employer Name)
-            for (IntWritable val : values) {
-                freq += val.get();
-            }
-            employer = new Text(key.toString());
-
-            // Offer this employer and its corresponding total frequency to the Top Twenty
-            offerToTopTen(freq, employer);
-        }
-
-        /**
-         * This function is called after the last call to reduce() is made.
-         * At this point we will write the ranking stored in topTenEmployers to the Context for output
-         *
-         * @param context (Context) - The context to write the output to
-         */
-        protected void cleanup(Context context)
-                throws IOException, InterruptedException {
-            for (int freq : topTenEmployers.descendingKeySet()) {
-                LinkedList<Text> employerList = topTenEmployers.get(freq);
-                for (Text employer : employerList) {
-                    context.write(employer, new IntWritable(freq));
-                }
-            }
-        }
-
-        /**
-         * This is a helper function whose only job is to determine if an employer belongs in the Top Ten.
-         * If it does, then it will pass that employer and its frequency to addToTopTen which will insert them into
-         * their proper place in topTenEmployers.
-         *
-         * @param freq     (int) - Total frequency count applications submitted by employer
-         * @param employer (Text) - Text object wrapping employer's name String
-         */
-        public void offerToTopTen(int freq, Text employer) {
-            if (topTenEmployers.size() < 10 || freq == topTenEmployers.firstKey())
-                addToTopTen(freq, employer);
-            else if (freq > topTenEmployers.firstKey()) {
-                topTenEmployers.pollFirstEntry(); // IMPORTANT: Removes the rank 10 element to make room for new addition
-                addToTopTen(freq, employer);
-            }
-        }
-
-        /**
-         * This function inserts a Job Title into its corresponding LinkedList in topTwentyJobTitles, or inserts it as the
-         * first element of a new LinkedList with a certain frequency count and inserts that LinkedList into the
-         * topTwentyJobTitles. (See documentation above the topTwentyJobTitles declaration)
-         * topTwentyJobTitles will always contain 19 elements or less before this function is called, leaving room for
-         * whatever <freq, jobTitle> pair is to be inserted.
-         *
-         * @param freq     (int) - number of application submitted by employer
-         * @param employer (Text) - Text object of the employer's name String
-         */
-        public void addToTopTen(int freq, Text employer) {
-            LinkedList<Text> employerList = topTenEmployers.get(freq);
-            if (employerList == null) {
-                //topTenEmployers.size() < 10 at this point
-                employerList = new LinkedList<Text>(); // Add employer as the first element of this list
-                employerList.add(employer);
-                topTenEmployers.put(freq, employerList);
-            } else // There is a tie, there is already a list of employer names for this frequency.
-                employerList.add(employer);
-        }
+    /**
+     * Sets up the Configuration the way this job ranks, leaving the options given with -D alone.  Also used by
+     * LocalRunner.
+     *
+     * @param conf (Configuration) - The job Configuration
+     */
+    public static void setDefaults(Configuration conf) {
+        TopKReducer.setDefaultK(conf, 10); // Rank the top 10 unless -D h1b.topk.k=<K> was given
+        conf.set(TopKDriver.SEPARATOR, " - ");
     }
 
     public static void main(String[] args) throws Exception {
         Configuration conf = new Configuration();
-        conf.set("mapreduce.output.textoutputformat.separator", " - ");
-        Job job = Job.getInstance(conf, "Employers Submitting Most Applications");
-        job.setJarByClass(TopEmployers.class);
-        job.setMapperClass(TokenizerMapper.class);
-        job.setCombinerClass(IntSumCombiner.class);
-        job.setReducerClass(TopTenReducer.class);
-        job.setNumReduceTasks(1);
-        job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(IntWritable.class);
-        FileInputFormat.addInputPath(job, new Path(args[0]));
-        FileOutputFormat.setOutputPath(job, new Path(args[1]));
-        System.exit(job.waitForCompletion(true) ? 0 : 1);
+        // Picks up -D options such as -D h1b.mapper.combine.inmemory=false or -D h1b.topk.reducers=4
+        String[] paths = new GenericOptionsParser(conf, args).getRemainingArgs();
+        setDefaults(conf);
+        boolean columnar = ColumnarInputFormat.isEnabled(conf);
+        if (columnar)
+            ColumnarInputFormat.setColumns(conf, H1bColumns.EMPLOYER_NAME);
+        boolean success = TopKDriver.run(conf, "Employers Submitting Most Applications", TopEmployers.class,
+                columnar ? ColumnarMapper.class : TokenizerMapper.class, IntSumCombiner.class, new Path(paths[0]),
+                new Path(paths[1]));
+        System.exit(success ? 0 : 1);
     }
 }
\ No newline at end of file
@@ -0,0 +1,240 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs a ranking job (a CountingMapper subclass feeding TopKReducer) and writes its Top K to the output directory.
+ * <p>
+ * With one reducer (the default) the whole shuffle goes to a single TopKReducer, which writes the final ranking
+ * itself.  With more than one reducer, every reducer ranks only its own partition of the keys and writes that local
+ * Top K to a SequenceFile in a temporary directory.  The driver then merges the local rankings into the global one.
+ * <p>
+ * The merge is exact, ties included: every key is counted by exactly one reducer, and a key in the global Top K
+ * frequencies can only have fewer than K distinct frequencies above it in its own partition, so it is always part of
+ * that partition's local Top K.
+ * <p>
+ * With key interning (h1b.keys.intern, see KeyInterning) the reducers rank key ids, and the merged ranking always
+ * goes through KeyInterning.resolve() to turn the ids back into keys, whatever the number of reducers.
+ * <p>
+ * With h1b.skew.enabled and more than one reducer, the input is sampled for hot keys first (see HotKeySampler), and
+ * SaltingPartitioner spreads their records over all of the reducers instead of sending them all to one.
+ * <p>
+ * In approximate mode (h1b.approx.enabled, see ApproximateTopK) the mappers write Space-Saving summaries, which a
+ * single reducer merges and ranks, whatever h1b.topk.reducers is set to.
+ * <p>
+ * Once the job is done, a summary of its counters and of the tasks' metrics is printed (see TaskMetrics), and the
+ * per-task metrics are kept in output/_metrics.
+ * <p>
+ * Configuration:
+ * h1b.topk.reducers (int, default 1) - Number of reducers ranking in parallel
+ * h1b.metrics.tasks (boolean, default true) - Write each task's metrics to output/_metrics
+ */
+public class TopKDriver {
+
+    public static final String REDUCERS = "h1b.topk.reducers";
+    public static final String SEPARATOR = "mapreduce.output.textoutputformat.separator";
+
+    /**
+     * @param conf          (Configuration) - Job Configuration, h1b.topk.k and the output separator already set
+     * @param jobName       (String) - Name of the job
+     * @param jarClass      (Class) - Class whose jar holds the job
+     * @param mapperClass   (Class) - The job's CountingMapper, reading H1bRecords if h1b.input.columnar is set
+     * @param combinerClass (Class) - Combiner used when in-mapper combining is switched off
+     * @param input         (Path) - Input path
+     * @param output        (Path) - Output directory, must not exist yet
+     * @return Returns true if the job succeeded
+     */
+    public static boolean run(Configuration conf, String jobName, Class<?> jarClass,
+                              Class<? extends CountingMapper<?>> mapperClass,
+                              Class<? extends Reducer<?, ?, ?, ?>> combinerClass, Path input, Path output)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        int reducers = conf.getInt(REDUCERS, 1);
+        boolean inMemoryCombine = conf.getBoolean(CountingMapper.IN_MEMORY_COMBINE, true);
+        boolean intern = KeyInterning.isEnabled(conf);
+        boolean approximate = ApproximateTopK.isEnabled(conf);
+        if (approximate && intern)
+            throw new IllegalArgumentException(ApproximateTopK.ENABLED + " and " + KeyInterning.ENABLED
+                    + " cannot be used together");
+        if (SaltingPartitioner.isEnabled(conf) && intern)
+            throw new IllegalArgumentException(SaltingPartitioner.ENABLED + " and " + KeyInterning.ENABLED
+                    + " cannot be used together");
+
+        Job job = Job.getInstance(conf, jobName);
+        Path metricsDir = null;
+        if (conf.getBoolean(TaskMetrics.ENABLED, true)) {
+            metricsDir = output.getFileSystem(conf).makeQualified(new Path(output, TaskMetrics.DIR_NAME));
+            job.getConfiguration().set(TaskMetrics.DIR, metricsDir.toString());
+        }
+        job.setJarByClass(jarClass);
+        job.setMapperClass(mapperClass);
+        if (ColumnarInputFormat.isEnabled(conf))
+            job.setInputFormatClass(ColumnarInputFormat.class);
+        else if (RowFilter.isConfigured(conf) || CsvRowRecordReader.isEnabled(conf))
+            job.setInputFormatClass(FilteringTextInputFormat.class); // Rows are filtered before reaching the mapper
+        job.setNumReduceTasks(reducers);
+        FileInputFormat.addInputPath(job, input);
+        if (approximate) {
+            // A single reducer merges the mappers' summaries and writes the ranking itself
+            ApproximateTopK.configure(job);
+            FileOutputFormat.setOutputPath(job, output);
+            return waitForCompletion(job, metricsDir);
+        }
+        if (intern) {
+            KeyInterning.configure(job, inMemoryCombine);
+        } else {
+            if (!inMemoryCombine)
+                job.setCombinerClass(combinerClass); // Mappers write <key, 1> pairs that still need combining
+            job.setReducerClass(TopKReducer.class);
+            job.setOutputKeyClass(Text.class);
+            job.setOutputValueClass(IntWritable.class);
+        }
+
+        if (reducers == 1 && !intern) {
+            FileOutputFormat.setOutputPath(job, output);
+            return waitForCompletion(job, metricsDir);
+        }
+
+        FileSystem fs = output.getFileSystem(conf);
+        if (fs.exists(output)) // Same check FileOutputFormat makes, done before any work is wasted
+            throw new FileAlreadyExistsException("Output directory " + output + " already exists");
+
+        if (SaltingPartitioner.isEnabled(conf)) {
+            List<Text> hotKeys = HotKeySampler.sample(job);
+            SaltingPartitioner.setHotKeys(job.getConfiguration(), hotKeys);
+            job.setPartitionerClass(SaltingPartitioner.class);
+            System.out.println("Hot keys spread over the reducers: " + hotKeys);
+        }
+
+        // Each reducer writes its local Top K, which is merged (and its ids turned back into keys) below
+        Path partial = new Path(output.getParent(), output.getName() + "_partial");
+        if (!intern)
+            job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        FileOutputFormat.setOutputPath(job, partial);
+        if (!waitForCompletion(job, metricsDir))
+            return false;
+
+        int k = conf.getInt(TopKReducer.K, 10);
+        if (intern)
+            KeyInterning.resolve(conf, fs, partial, output, k);
+        else
+            mergeLocalRankings(job.getConfiguration(), fs, partial, output, k);
+        fs.create(new Path(output, "_SUCCESS")).close();
+        fs.delete(partial, true);
+        return true;
+    }
+
+    /**
+     * Runs the job, then prints TaskMetrics.printSummary() if it succeeded.
+     */
+    private static boolean waitForCompletion(Job job, Path metricsDir)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        if (!job.waitForCompletion(true))
+            return false;
+        TaskMetrics.printSummary(job, metricsDir, System.out);
+        return true;
+    }
+
+    /**
+     * Offers every <key, freq> pair of the local rankings to one TopKRanking and writes the result with writeRanking().
+     * The partial counts of the hot keys (see SaltingPartitioner) are added up first, then offered as well.
+     *
+     * @param conf    (Configuration) - Job Configuration, holding the hot keys if any
+     * @param fs      (FileSystem) - File system holding both directories
+     * @param partial (Path) - Directory of the reducers' SequenceFiles (part-* files)
+     * @param output  (Path) - Final output directory
+     * @param k       (int) - Number of distinct frequencies to rank
+     */
+    public static void mergeLocalRankings(Configuration conf, FileSystem fs, Path partial, Path output, int k)
+            throws IOException, InterruptedException {
+        mergeLocalRankings(conf, fs, partial, output, k, null);
+    }
+
+    /**
+     * Same as mergeLocalRankings(conf, fs, partial, output, k), writing the ranked keys in keyOrder.
+     *
+     * @param keyOrder (Comparator<byte[]>) - Order to write the keys in, or null for descending frequency
+     */
+    public static void mergeLocalRankings(Configuration conf, FileSystem fs, Path partial, Path output, int k,
+                                          Comparator<byte[]> keyOrder) throws IOException, InterruptedException {
+        final TopKRanking ranking = new TopKRanking(k);
+        Set<Text> hotKeys = SaltingPartitioner.getHotKeys(conf);
+        ByteKeyCountMap hotCounts = new ByteKeyCountMap(Long.MAX_VALUE);
+        Text key = new Text();
+        IntWritable freq = new IntWritable();
+        for (FileStatus status : fs.listStatus(partial)) {
+            Path part = status.getPath();
+            if (!part.getName().startsWith("part-"))
+                continue;
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(part))) {
+                while (reader.next(key, freq)) {
+                    if (hotKeys != null && hotKeys.contains(key))
+                        hotCounts.add(key.getBytes(), 0, key.getLength(), freq.get());
+                    else
+                        ranking.offer(freq.get(), key.getBytes(), 0, key.getLength());
+                }
+            }
+        }
+        hotCounts.forEach(new KeyCountVisitor() {
+            public void visit(byte[] bytes, int start, int length, int count) {
+                ranking.offer(count, bytes, start, length);
+            }
+        });
+
+        writeRanking(conf, fs, ranking, output, keyOrder);
+    }
+
+    /**
+     * Writes a ranking to output/part-r-00000, in the same format TextOutputFormat would have written it in.
+     *
+     * @param conf    (Configuration) - Job Configuration, holding the output separator
+     * @param fs      (FileSystem) - File system holding the output directory
+     * @param ranking (TopKRanking) - The final ranking
+     * @param output  (Path) - Final output directory
+     */
+    public static void writeRanking(Configuration conf, FileSystem fs, TopKRanking ranking, Path output)
+            throws IOException, InterruptedException {
+        writeRanking(conf, fs, ranking, output, null);
+    }
+
+    /**
+     * Same as writeRanking(conf, fs, ranking, output), writing the ranked keys in keyOrder.
+     *
+     * @param keyOrder (Comparator<byte[]>) - Order to write the keys in, or null for descending frequency
+     */
+    public static void writeRanking(Configuration conf, FileSystem fs, TopKRanking ranking, Path output,
+                                    Comparator<byte[]> keyOrder) throws IOException, InterruptedException {
+        final byte[] separator = conf.get(SEPARATOR, "\t").getBytes(StandardCharsets.UTF_8);
+        fs.mkdirs(output);
+        try (final FSDataOutputStream out = fs.create(new Path(output, "part-r-00000"))) {
+            KeyCountVisitor writer = new KeyCountVisitor() {
+                public void visit(byte[] bytes, int start, int length, int count) throws IOException {
+                    out.write(bytes, start, length);
+                    out.write(separator);
+                    out.write(Integer.toString(count).getBytes(StandardCharsets.UTF_8));
+                    out.write('\n');
+                }
+            };
+            if (keyOrder == null)
+                ranking.forEachDescending(writer);
+            else
+                ranking.forEachInKeyOrder(keyOrder, writer);
+        }
+    }
+}
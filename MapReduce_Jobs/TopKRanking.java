@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Keeps the keys with the K highest frequency counts seen so far.
+ * <p>
+ * Like the original TopTenReducer/TopTwentyReducer rankings, K counts distinct frequencies, not keys: keys that are
+ * tied on a frequency share a rank, so the ranking may hold more than K keys.  Tied keys are handed out in byte order,
+ * the same order a single reducer receives them in, so rankings merged from several partitions come out the same.
+ * <p>
+ * The K frequencies are kept in a binary min-heap of ints, so the lowest ranked frequency is always at heap[0] and
+ * a key that does not make the cut is rejected with a single comparison.  A key's bytes are only copied once it
+ * actually enters the ranking, so the Text object passed to reduce() can be reused by the framework.
+ * <p>
+ * The heap slot of each frequency is found through a small open addressing table of ints, at most half full, so a
+ * key that makes the cut is looked up without boxing its frequency.
+ */
+public class TopKRanking {
+
+    /**
+     * All of the keys that are tied on one frequency
+     */
+    private static class Rank {
+        final int freq;
+        final ArrayList<byte[]> keys = new ArrayList<>(1);
+
+        Rank(int freq) {
+            this.freq = freq;
+        }
+    }
+
+    private final int k;
+    private final int[] heap;    // frequencies, heap[0] is the lowest ranked
+    private final Rank[] ranks;  // ranks[i] holds the keys for heap[i]
+    private final int[] tableFreqs;  // Open addressing table of the frequencies in heap[], linear probing
+    private final int[] tableSlots;  // Heap slot of tableFreqs[i] plus one, 0 marks an empty entry
+    private final int mask;
+    private int size;
+    private long insertions; // Keys that entered the ranking
+    private long evictions;  // Keys that were pushed out of it again
+
+    /**
+     * @param k (int) - Number of distinct frequencies to keep
+     */
+    public TopKRanking(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1, was " + k);
+        this.k = k;
+        heap = new int[k];
+        ranks = new Rank[k];
+        int capacity = Integer.highestOneBit(2 * k - 1) << 1; // At least 2 * k, so probes stay short
+        tableFreqs = new int[capacity];
+        tableSlots = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Determines if a key belongs in the Top K, and if it does, copies the key and inserts it into its rank.  If the
+     * key's frequency is not in the ranking yet and the ranking is full, the lowest ranked frequency and all of its
+     * keys are evicted to make room for it.
+     *
+     * @param freq   (int) - Total frequency count of the key
+     * @param bytes  (byte[]) - Array containing the key, usually Text.getBytes()
+     * @param start  (int) - Offset of the key in bytes[]
+     * @param length (int) - Length of the key
+     * @return Returns true if the key entered the ranking
+     */
+    public boolean offer(int freq, byte[] bytes, int start, int length) {
+        if (size == k && freq < heap[0])
+            return false; // Most keys are rejected here without any lookups
+
+        int entry = find(freq);
+        Rank rank;
+        if (tableSlots[entry] != 0) {
+            rank = ranks[tableSlots[entry] - 1];
+        } else {
+            rank = new Rank(freq);
+            if (size == k) {
+                remove(heap[0]); // IMPORTANT: Removes the rank K frequency to make room for new addition
+                evictions += ranks[0].keys.size();
+                heap[0] = freq;
+                ranks[0] = rank;
+                setSlot(freq, 0);
+                siftDown(0);
+            } else {
+                heap[size] = freq;
+                ranks[size] = rank;
+                setSlot(freq, size);
+                siftUp(size++);
+            }
+        }
+        rank.keys.add(Arrays.copyOfRange(bytes, start, start + length));
+        insertions++;
+        return true;
+    }
+
+    /**
+     * @return Returns the number of keys that entered the ranking, including the ones evicted since
+     */
+    public long insertions() {
+        return insertions;
+    }
+
+    /**
+     * @return Returns the number of keys evicted from the ranking along with their frequency
+     */
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * @return Returns the number of distinct frequencies currently in the ranking
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Hands every key in the ranking to visitor, in descending order of frequency.  Tied keys are handed over in
+     * byte order.
+     *
+     * @param visitor (KeyCountVisitor) - Receives each key and its frequency
+     */
+    public void forEachDescending(KeyCountVisitor visitor) throws IOException, InterruptedException {
+        Rank[] sorted = Arrays.copyOf(ranks, size);
+        Arrays.sort(sorted, (a, b) -> Integer.compare(b.freq, a.freq));
+        for (Rank rank : sorted) {
+            rank.keys.sort(TopKRanking::compareKeys);
+            for (byte[] key : rank.keys)
+                visitor.visit(key, 0, key.length, rank.freq);
+        }
+    }
+
+    /**
+     * Hands every key in the ranking to visitor, in the order of keyOrder instead of by frequency, for rankings of
+     * ordered keys such as years.
+     *
+     * @param keyOrder (Comparator<byte[]>) - Order of the keys
+     * @param visitor  (KeyCountVisitor) - Receives each key and its frequency
+     */
+    public void forEachInKeyOrder(Comparator<byte[]> keyOrder, KeyCountVisitor visitor)
+            throws IOException, InterruptedException {
+        final HashMap<byte[], Integer> freqs = new HashMap<>();
+        ArrayList<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            for (byte[] key : ranks[i].keys) {
+                keys.add(key);
+                freqs.put(key, ranks[i].freq); // Identity hash, every key is its own array
+            }
+        }
+        keys.sort(keyOrder);
+        for (byte[] key : keys)
+            visitor.visit(key, 0, key.length, freqs.get(key));
+    }
+
+    /**
+     * Compares keys as unsigned bytes, the same way Text keys are sorted by the shuffle.
+     */
+    private static int compareKeys(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0)
+                return diff;
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * @return Returns the table entry holding freq, or the empty entry it would go in
+     */
+    private int find(int freq) {
+        int entry = hash(freq) & mask;
+        while (tableSlots[entry] != 0 && tableFreqs[entry] != freq)
+            entry = (entry + 1) & mask;
+        return entry;
+    }
+
+    private static int hash(int freq) {
+        int h = freq * 0x9e3779b9; // Counts are small and clustered, spread them over the table
+        return h ^ (h >>> 16);
+    }
+
+    private void setSlot(int freq, int slot) {
+        int entry = find(freq);
+        tableFreqs[entry] = freq;
+        tableSlots[entry] = slot + 1;
+    }
+
+    /**
+     * Removes freq from the table, moving back the entries after it that could not be found across the gap.
+     */
+    private void remove(int freq) {
+        int gap = find(freq);
+        tableSlots[gap] = 0;
+        for (int entry = (gap + 1) & mask; tableSlots[entry] != 0; entry = (entry + 1) & mask) {
+            int home = hash(tableFreqs[entry]) & mask;
+            if (((entry - home) & mask) >= ((entry - gap) & mask)) {
+                tableFreqs[gap] = tableFreqs[entry];
+                tableSlots[gap] = tableSlots[entry];
+                tableSlots[entry] = 0;
+                gap = entry;
+            }
+        }
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent] <= heap[index])
+                return;
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size)
+                return;
+            if (child + 1 < size && heap[child + 1] < heap[child])
+                child++;
+            if (heap[index] <= heap[child])
+                return;
+            swap(index, child);
+            index = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int freq = heap[i];
+        heap[i] = heap[j];
+        heap[j] = freq;
+        Rank rank = ranks[i];
+        ranks[i] = ranks[j];
+        ranks[j] = rank;
+        setSlot(heap[i], i);
+        setSlot(heap[j], j);
+    }
+}
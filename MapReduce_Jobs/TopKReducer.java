@@ -0,0 +1,124 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Reducer shared by the ranking jobs.  Sums the frequency counts for each key and offers the key to a TopKRanking,
+ * then writes the ranking to the Context in descending order of frequency once the last key has been reduced.
+ * <p>
+ * Hot keys (see SaltingPartitioner) are spread over all of the reducers, so a reducer only holds part of their
+ * count.  They are not ranked: their partial counts are written to the Context as soon as they are reduced, before
+ * the ranking, for TopKDriver.mergeLocalRankings() to add up.
+ * <p>
+ * The ranking's insertions and evictions are published in Counters and, with the task's elapsed time, written with
+ * TaskMetrics.
+ * <p>
+ * Configuration:
+ * h1b.topk.k (int) - Number of distinct frequencies to rank (ties share a rank).  Each job sets its own default.
+ */
+public class TopKReducer extends Reducer<Text, IntWritable, Text, IntWritable> {
+
+    public static final String K = "h1b.topk.k";
+
+    public enum Counters {
+        TOPK_INSERTIONS,
+        TOPK_EVICTIONS
+    }
+
+    private final IntWritable outFreq = new IntWritable();
+    private final Text outKey = new Text();
+    private TopKRanking ranking;
+    private Set<Text> hotKeys;
+    private long startNanos;
+    private long keys;
+    private long records;
+
+    /**
+     * Sets h1b.topk.k to defaultK unless it was already given, for example on the command line with -D.
+     *
+     * @param conf     (Configuration) - The job Configuration
+     * @param defaultK (int) - The number of frequencies the job ranks by default
+     */
+    public static void setDefaultK(Configuration conf, int defaultK) {
+        if (conf.get(K) == null)
+            conf.setInt(K, defaultK);
+    }
+
+    /**
+     * @param context (Context) - The context of this reduce task
+     */
+    protected void setup(Context context) throws IOException, InterruptedException {
+        startNanos = System.nanoTime();
+        ranking = new TopKRanking(context.getConfiguration().getInt(K, 10));
+        hotKeys = SaltingPartitioner.getHotKeys(context.getConfiguration());
+    }
+
+    /**
+     * Reduce the frequency outputs for a single key into its total frequency count, and offer that key and its
+     * frequency to the ranking, which will determine where, if anywhere, it belongs in the Top K.
+     *
+     * @param key     (Text) - Text object wrapping the key (Employer Name, Job Title...)
+     * @param values  (Iterable<IntWritable>) - The Iterable containing the frequency counts for the key
+     * @param context Unused, but required as a parameter.
+     */
+    public void reduce(Text key, Iterable<IntWritable> values, Context context)
+            throws IOException, InterruptedException {
+        int freq = 0;
+        for (IntWritable val : values) {
+            freq += val.get();
+            records++;
+        }
+        keys++;
+        if (hotKeys != null && hotKeys.contains(key)) {
+            outFreq.set(freq);
+            context.write(key, outFreq); // Partial count, added up by the driver
+            return;
+        }
+        ranking.offer(freq, key.getBytes(), 0, key.getLength());
+    }
+
+    /**
+     * This function is called after the last call to reduce() is made.
+     * At this point we will write the ranking to the Context for output
+     *
+     * @param context (Context) - The context to write the output to
+     */
+    protected void cleanup(final Context context) throws IOException, InterruptedException {
+        ranking.forEachDescending(new KeyCountVisitor() {
+            public void visit(byte[] bytes, int start, int length, int count)
+                    throws IOException, InterruptedException {
+                outKey.set(bytes, start, length);
+                outFreq.set(count);
+                context.write(outKey, outFreq);
+            }
+        });
+        publishMetrics(context, ranking, keys, records, startNanos);
+    }
+
+    /**
+     * Publishes the metrics of a ranking reduce task, see Counters and TaskMetrics.
+     *
+     * @param context    (TaskInputOutputContext) - The context of the reduce task
+     * @param ranking    (TopKRanking) - The task's ranking, once every key has been offered
+     * @param keys       (long) - Number of keys reduced
+     * @param records    (long) - Number of records reduced
+     * @param startNanos (long) - System.nanoTime() when the task started
+     */
+    public static void publishMetrics(TaskInputOutputContext<?, ?, ?, ?> context, TopKRanking ranking, long keys,
+                                      long records, long startNanos) throws IOException {
+        context.getCounter(Counters.TOPK_INSERTIONS).increment(ranking.insertions());
+        context.getCounter(Counters.TOPK_EVICTIONS).increment(ranking.evictions());
+        new TaskMetrics(context)
+                .add("elapsed_ms", (System.nanoTime() - startNanos) / 1000000)
+                .add("keys_reduced", keys)
+                .add("records_reduced", records)
+                .add("topk_insertions", ranking.insertions())
+                .add("topk_evictions", ranking.evictions())
+                .write(context);
+    }
+}
@@ -0,0 +1,248 @@
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Summary of the wages of one key: the exact count, sum, min and max, and a KLL quantile sketch (Karnin, Lang and
+ * Liberty, "Optimal Quantile Approximation in Streams") from which percentiles are estimated in constant memory.
+ * <p>
+ * The sketch keeps its items in levels.  An item in level h stands for 2^h wages.  When a level reaches its capacity
+ * it is sorted and compacted: every other item, starting at the first or the second one at random, is promoted to the
+ * next level and the others are dropped.  The top level holds up to k items and every level below it 2/3 of the one
+ * above, so a sketch never holds more than about 3k items, however many wages it has seen.  With the default k of 200,
+ * the rank of an estimated percentile is off by at most about 1.7% of the count with high probability, as long as
+ * every sketch flips its own coins (see seed()).  WageSketchCheck, in the benchmarks, measures it on merged sketches.
+ * <p>
+ * Sketches are mergeable: merge() appends the other sketch's levels to this one's and compacts, so mappers can sketch
+ * their own rows and the reducer merges the partial sketches in any order.  As long as a sketch has not compacted yet
+ * (fewer wages than the capacity of its bottom level) its percentiles are exact.
+ */
+public class WageSketch implements Writable {
+
+    public static final int DEFAULT_K = 200;
+
+    private int k;
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    private long[][] levels = new long[1][];
+    private int[] sizes = new int[1];
+    private int numLevels = 1;
+    private long coin; // State of the xorshift generator picking the items a compaction keeps, see seed()
+
+    public WageSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k (int) - Capacity of the top level, at least 8.  Higher is more accurate and takes more memory.
+     */
+    public WageSketch(int k) {
+        if (k < 8)
+            throw new IllegalArgumentException("k must be at least 8, was " + k);
+        this.k = k;
+        levels[0] = new long[4];
+        coin = seed();
+    }
+
+    /**
+     * @param wage (long) - A wage, in whole dollars
+     */
+    public void add(long wage) {
+        count++;
+        sum += wage;
+        min = Math.min(min, wage);
+        max = Math.max(max, wage);
+        append(0, wage);
+        if (sizes[0] >= capacity(0))
+            compress();
+    }
+
+    /**
+     * Adds the wages summarized by other to this sketch.  other is left unchanged.
+     *
+     * @param other (WageSketch) - The sketch to merge into this one
+     */
+    public void merge(WageSketch other) {
+        if (other.count == 0)
+            return;
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        for (int level = 0; level < other.numLevels; level++) {
+            while (level >= numLevels)
+                addLevel();
+            for (int i = 0; i < other.sizes[level]; i++)
+                append(level, other.levels[level][i]);
+        }
+        compress();
+    }
+
+    public void clear() {
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+        numLevels = 1;
+        sizes = new int[1];
+        levels = new long[1][];
+        levels[0] = new long[4];
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long sum() {
+        return sum;
+    }
+
+    public long min() {
+        return min;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * @param fractions (double[]) - The percentiles to estimate, as fractions between 0 and 1, e.g. 0.5 for the median
+     * @return Returns the estimated wage of each percentile, none if the sketch is empty
+     */
+    public long[] quantiles(double[] fractions) {
+        if (count == 0)
+            return new long[0];
+        int items = 0;
+        for (int level = 0; level < numLevels; level++)
+            items += sizes[level];
+        // Sort (wage, weight) pairs by wage, packed into the two arrays by an index sort
+        long[] wages = new long[items];
+        long[] weights = new long[items];
+        Integer[] order = new Integer[items];
+        int item = 0;
+        for (int level = 0; level < numLevels; level++) {
+            for (int i = 0; i < sizes[level]; i++) {
+                wages[item] = levels[level][i];
+                weights[item] = 1L << level;
+                order[item] = item;
+                item++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(wages[a], wages[b]));
+
+        long total = 0;
+        for (long weight : weights)
+            total += weight;
+        long[] quantiles = new long[fractions.length];
+        for (int q = 0; q < fractions.length; q++) {
+            // The smallest wage whose cumulative weight reaches the fraction of the total, the nearest-rank definition
+            double target = Math.max(1, Math.ceil(fractions[q] * total));
+            long cumulative = 0;
+            long wage = max;
+            for (Integer index : order) {
+                cumulative += weights[index];
+                if (cumulative >= target) {
+                    wage = wages[index];
+                    break;
+                }
+            }
+            quantiles[q] = Math.max(min, Math.min(max, wage));
+        }
+        return quantiles;
+    }
+
+    /**
+     * The error bound needs the coins of different sketches to be independent: with a shared seed, the sketches of
+     * every mapper would keep the same side of their compactions, and their errors would add up when merged instead
+     * of cancelling out.
+     *
+     * @return Returns a random non-zero state for the xorshift generator, different for every sketch
+     */
+    private static long seed() {
+        return ThreadLocalRandom.current().nextLong() | 1;
+    }
+
+    /**
+     * @return Returns the number of items level can hold before it is compacted
+     */
+    private int capacity(int level) {
+        int depth = numLevels - 1 - level;
+        return Math.max(2, (int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+    }
+
+    private void append(int level, long wage) {
+        if (sizes[level] == levels[level].length)
+            levels[level] = Arrays.copyOf(levels[level], Math.max(4, 2 * sizes[level]));
+        levels[level][sizes[level]++] = wage;
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, numLevels + 1);
+        sizes = Arrays.copyOf(sizes, numLevels + 1);
+        levels[numLevels] = new long[4];
+        numLevels++;
+    }
+
+    /**
+     * Compacts every level that is at or over its capacity, from the bottom up.
+     */
+    private void compress() {
+        for (int level = 0; level < numLevels; level++) {
+            if (sizes[level] < capacity(level))
+                continue;
+            if (level + 1 == numLevels)
+                addLevel(); // Also lowers the capacity of the levels below, which are compacted again next time
+            long[] items = levels[level];
+            int size = sizes[level];
+            // An odd item out stays behind, so every promoted item stands for exactly two
+            int kept = size & 1;
+            Arrays.sort(items, kept, size);
+            coin ^= coin << 13;
+            coin ^= coin >>> 7;
+            coin ^= coin << 17;
+            for (int i = kept + (int) (coin & 1); i < size; i += 2)
+                append(level + 1, items[i]);
+            sizes[level] = kept;
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, k);
+        WritableUtils.writeVLong(out, count);
+        WritableUtils.writeVLong(out, sum);
+        WritableUtils.writeVLong(out, min);
+        WritableUtils.writeVLong(out, max);
+        WritableUtils.writeVInt(out, numLevels);
+        for (int level = 0; level < numLevels; level++) {
+            WritableUtils.writeVInt(out, sizes[level]);
+            for (int i = 0; i < sizes[level]; i++)
+                WritableUtils.writeVLong(out, levels[level][i]);
+        }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        coin = seed(); // Hadoop reuses the instance for every value it reads
+        k = WritableUtils.readVInt(in);
+        count = WritableUtils.readVLong(in);
+        sum = WritableUtils.readVLong(in);
+        min = WritableUtils.readVLong(in);
+        max = WritableUtils.readVLong(in);
+        numLevels = WritableUtils.readVInt(in);
+        levels = new long[numLevels][];
+        sizes = new int[numLevels];
+        for (int level = 0; level < numLevels; level++) {
+            sizes[level] = WritableUtils.readVInt(in);
+            levels[level] = new long[Math.max(4, sizes[level])];
+            for (int i = 0; i < sizes[level]; i++)
+                levels[level][i] = WritableUtils.readVLong(in);
+        }
+    }
+}
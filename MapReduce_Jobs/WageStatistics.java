@@ -0,0 +1,255 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes the wage distribution of every employer and every job title: the number of applications with a
+ * PREVAILING_WAGE, their mean, min and max wage, and percentiles (by default the median, p90 and p99).
+ * <p>
+ * The percentiles are estimated with mergeable WageSketches instead of sending every wage of a key to the reducer.
+ * Each mapper keeps one sketch per key in memory and writes them out at the end of the task, or whenever
+ * h1b.wage.mapper.keys keys are held, and the reducer merges the sketches of a key.  A sketch holds at most about
+ * 3 * h1b.wage.sketch.k wages, so the shuffle and the reducer's memory do not grow with the number of applications of
+ * a key.  Count, mean, min and max are exact.
+ * <p>
+ * Like H1bReport, the keys of both dimensions share one shuffle, tagged with a leading byte naming their dimension,
+ * and each dimension is written to its own subdirectory of the output directory with MultipleOutputs:
+ * <p>
+ * employers/  - Wages per EMPLOYER_NAME
+ * job_titles/ - Wages per JOB_TITLE
+ * <p>
+ * Each line is the key, then its count, mean, min, max and percentiles, separated by tabs.  Blank (NA) or 1 letter
+ * Employer names and Job Titles are discarded, as in the ranking jobs, and so are applications without a wage.  Rows
+ * can be filtered in the record reader with the h1b.filter.* options, e.g. to only count CERTIFIED applications, see
+ * RowFilter.
+ * <p>
+ * Configuration:
+ * h1b.wage.percentiles (doubles, default 0.5,0.9,0.99) - The percentiles to estimate, as fractions
+ * h1b.wage.sketch.k (int, default 200) - Accuracy of the sketches, see WageSketch
+ * h1b.wage.mapper.keys (int, default 50000) - Number of keys a mapper holds before writing its sketches out
+ * h1b.wage.min.count (int, default 1) - Keys with fewer wages are not written
+ * h1b.wage.reducers (int, default 1) - Number of reducers
+ */
+public class WageStatistics {
+
+    public static final String[] DIMENSIONS = {"employers", "job_titles"};
+    public static final byte EMPLOYERS = 0;
+    public static final byte JOB_TITLES = 1;
+
+    public static final String PERCENTILES = "h1b.wage.percentiles";
+    public static final String SKETCH_K = "h1b.wage.sketch.k";
+    public static final String MAPPER_KEYS = "h1b.wage.mapper.keys";
+    public static final String MIN_COUNT = "h1b.wage.min.count";
+    public static final String REDUCERS = "h1b.wage.reducers";
+
+    public enum Counters {
+        ROWS_MALFORMED,
+        ROWS_NO_WAGE,
+        IN_MEMORY_FLUSHES
+    }
+
+    public static class SketchMapper extends Mapper<Object, Text, Text, WageSketch> {
+
+        private final CsvFieldScanner scanner = new CsvFieldScanner(H1bColumns.PREVAILING_WAGE + 1);
+        private final Map<Text, WageSketch> sketches = new HashMap<>();
+        private final Text taggedKey = new Text();
+        private final byte[] tag = new byte[1];
+        private int sketchK;
+        private int maxKeys;
+
+        protected void setup(Context context) {
+            sketchK = context.getConfiguration().getInt(SKETCH_K, WageSketch.DEFAULT_K);
+            maxKeys = context.getConfiguration().getInt(MAPPER_KEYS, 50000);
+        }
+
+        /**
+         * Adds the row's wage to the sketches of its employer and of its job title.
+         *
+         * @param key     (Object) - Input key.  Not used in this function.
+         * @param value   (Text) - value is the Text object wrapping a row in the dataset csv
+         * @param context (Context) - The Context that we will be writing map output <key, value> pairs to
+         */
+        public void map(Object key, Text value, Context context)
+                throws IOException, InterruptedException {
+            byte[] row = value.getBytes();
+            if (scanner.scan(row, value.getLength(), H1bColumns.PREVAILING_WAGE + 1) <= H1bColumns.PREVAILING_WAGE) {
+                context.getCounter(Counters.ROWS_MALFORMED).increment(1);
+                return;
+            }
+            long wage = H1bReport.parseWage(row, scanner.start(H1bColumns.PREVAILING_WAGE),
+                    scanner.length(H1bColumns.PREVAILING_WAGE));
+            if (wage < 0) {
+                context.getCounter(Counters.ROWS_NO_WAGE).increment(1);
+                return;
+            }
+            add(EMPLOYERS, row, H1bColumns.EMPLOYER_NAME, wage, context);
+            add(JOB_TITLES, row, H1bColumns.JOB_TITLE, wage, context);
+        }
+
+        /**
+         * Adds wage to the sketch of the value of column, prefixed by the tag byte of its dimension.  Blank (NA) or 1
+         * letter values are discarded.
+         */
+        private void add(byte dimension, byte[] row, int column, long wage, Context context)
+                throws IOException, InterruptedException {
+            if (!scanner.isQuoted(column) || scanner.length(column) <= 1)
+                return;
+            tag[0] = dimension;
+            taggedKey.set(tag, 0, 1);
+            taggedKey.append(row, scanner.start(column), scanner.length(column));
+            WageSketch sketch = sketches.get(taggedKey);
+            if (sketch == null) {
+                if (sketches.size() >= maxKeys)
+                    flush(context);
+                sketch = new WageSketch(sketchK);
+                sketches.put(new Text(taggedKey), sketch);
+            }
+            sketch.add(wage);
+        }
+
+        /**
+         * Writes out the sketches left in memory.
+         *
+         * @param context (Context) - The context to write the output to
+         */
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flush(context);
+        }
+
+        private void flush(Context context) throws IOException, InterruptedException {
+            context.getCounter(Counters.IN_MEMORY_FLUSHES).increment(1);
+            for (Map.Entry<Text, WageSketch> sketch : sketches.entrySet())
+                context.write(sketch.getKey(), sketch.getValue());
+            sketches.clear();
+        }
+    }
+
+    /**
+     * Merges the sketches of each tagged key written by the mappers of one node.
+     */
+    public static class SketchCombiner extends Reducer<Text, WageSketch, Text, WageSketch> {
+
+        /**
+         * @param key     (Text) - Tag byte of the dimension followed by the key
+         * @param values  (Iterable<WageSketch>) - The partial sketches of the key
+         * @param context (Context) - The context to write the merged sketch to
+         */
+        public void reduce(Text key, Iterable<WageSketch> values, Context context)
+                throws IOException, InterruptedException {
+            WageSketch merged = new WageSketch(context.getConfiguration().getInt(SKETCH_K, WageSketch.DEFAULT_K));
+            for (WageSketch sketch : values)
+                merged.merge(sketch);
+            context.write(key, merged);
+        }
+    }
+
+    /**
+     * Merges the sketches of each tagged key and writes the key's statistics to the subdirectory of its dimension.
+     */
+    public static class StatisticsReducer extends Reducer<Text, WageSketch, Text, Text> {
+
+        private final Text outKey = new Text();
+        private final Text outStatistics = new Text();
+        private final StringBuilder statistics = new StringBuilder();
+        private MultipleOutputs<Text, Text> outputs;
+        private double[] percentiles;
+        private int sketchK;
+        private int minCount;
+
+        protected void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            percentiles = getPercentiles(conf);
+            sketchK = conf.getInt(SKETCH_K, WageSketch.DEFAULT_K);
+            minCount = conf.getInt(MIN_COUNT, 1);
+            outputs = new MultipleOutputs<>(context);
+        }
+
+        /**
+         * @param key     (Text) - Tag byte of the dimension followed by the key
+         * @param values  (Iterable<WageSketch>) - The partial sketches of the key
+         * @param context Unused, but required as a parameter.
+         */
+        public void reduce(Text key, Iterable<WageSketch> values, Context context)
+                throws IOException, InterruptedException {
+            WageSketch merged = new WageSketch(sketchK);
+            for (WageSketch sketch : values)
+                merged.merge(sketch);
+            if (merged.count() < minCount)
+                return;
+
+            statistics.setLength(0);
+            statistics.append(merged.count()).append('\t')
+                    .append(Math.round((double) merged.sum() / merged.count())).append('\t')
+                    .append(merged.min()).append('\t')
+                    .append(merged.max());
+            for (long wage : merged.quantiles(percentiles))
+                statistics.append('\t').append(wage);
+            outKey.set(key.getBytes(), 1, key.getLength() - 1);
+            outStatistics.set(statistics.toString());
+            outputs.write(outKey, outStatistics, DIMENSIONS[key.getBytes()[0]] + "/part");
+        }
+
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            outputs.close();
+        }
+    }
+
+    /**
+     * @param conf (Configuration) - Job Configuration
+     * @return Returns the percentiles to estimate, as fractions
+     * @throws IllegalArgumentException if one of them is not between 0 and 1
+     */
+    public static double[] getPercentiles(Configuration conf) {
+        String[] values = conf.getTrimmedStrings(PERCENTILES, "0.5", "0.9", "0.99");
+        double[] percentiles = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            percentiles[i] = Double.parseDouble(values[i]);
+            if (!(percentiles[i] >= 0 && percentiles[i] <= 1))
+                throw new IllegalArgumentException(PERCENTILES + " must be fractions between 0 and 1, was "
+                        + values[i]);
+        }
+        return percentiles;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        // Picks up -D options such as -D h1b.wage.percentiles=0.25,0.5,0.75 or -D h1b.filter.status.equals=CERTIFIED
+        String[] paths = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (paths.length != 2) {
+            System.err.println("Usage: WageStatistics [-D <option>=<value>...] <input> <output directory>");
+            System.exit(2);
+        }
+        getPercentiles(conf); // Fail before the job runs
+
+        Job job = Job.getInstance(conf, "H-1B Wage Statistics");
+        job.setJarByClass(WageStatistics.class);
+        job.setMapperClass(SketchMapper.class);
+        if (RowFilter.isConfigured(conf) || CsvRowRecordReader.isEnabled(conf))
+            job.setInputFormatClass(FilteringTextInputFormat.class);
+        job.setCombinerClass(SketchCombiner.class);
+        job.setReducerClass(StatisticsReducer.class);
+        job.setNumReduceTasks(conf.getInt(REDUCERS, 1));
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(WageSketch.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        // Everything is written through MultipleOutputs, so don't create empty part-r-NNNNN files
+        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+        FileInputFormat.addInputPath(job, new Path(paths[0]));
+        FileOutputFormat.setOutputPath(job, new Path(paths[1]));
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
@@ -0,0 +1,390 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes globe/data/emp_data.json straight from the dataset: the top employers, each with the worksite grid cells
+ * where most of its applications are, in the [[name, [lat, lon, value, ...]], ...] layout globe.js reads.
+ * <p>
+ * The driver runs two jobs.  The first is TopEmployers, written to output/employers.  The second bins the lat/lon of
+ * every application of a ranked employer into a grid of h1b.grid.cell.degrees wide cells, and sums per employer and
+ * cell the number of applications and their coordinates.  A cell is drawn at the average position of its applications
+ * rather than at its corner, so a cell holding a single city shows up on that city.
+ * <p>
+ * The driver then keeps the h1b.grid.points busiest cells of each employer and writes output/emp_data.json.  value is
+ * the cell's count over the count of the employer's busiest cell, so the tallest bar of every employer is 1.  globe.js
+ * animates between the employers by morphing the points of the first one, so every employer must have the same number
+ * of points: employers with fewer cells are padded with points of value 0 on their last cell.
+ * <p>
+ * Configuration:
+ * h1b.grid.employers (int, default 10) - Number of distinct frequencies of the employer ranking, as h1b.topk.k
+ * h1b.grid.cell.degrees (double, default 1.0) - Width and height of a grid cell, at least 0.01 degrees
+ * h1b.grid.points (int, default 50) - Number of points per employer
+ * h1b.grid.employer.names (String, set by the driver) - The ranked employers, Base64 encoded
+ */
+public class WorksiteGrid {
+
+    public static final String EMPLOYERS = "h1b.grid.employers";
+    public static final String CELL_DEGREES = "h1b.grid.cell.degrees";
+    public static final String POINTS = "h1b.grid.points";
+    public static final String EMPLOYER_NAMES = "h1b.grid.employer.names";
+
+    public static final String OUTPUT_FILE = "emp_data.json";
+
+    public enum Counters {
+        ROWS_NOT_LOCATED
+    }
+
+    /**
+     * Number of applications in a grid cell, and the sums of their coordinates.
+     */
+    public static class GridCell implements Writable {
+
+        private long count;
+        private double latSum;
+        private double lonSum;
+
+        public void add(double lat, double lon) {
+            count++;
+            latSum += lat;
+            lonSum += lon;
+        }
+
+        public void add(GridCell other) {
+            count += other.count;
+            latSum += other.latSum;
+            lonSum += other.lonSum;
+        }
+
+        public void clear() {
+            count = 0;
+            latSum = 0;
+            lonSum = 0;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @return Returns the average latitude of the cell's applications
+         */
+        public double lat() {
+            return latSum / count;
+        }
+
+        /**
+         * @return Returns the average longitude of the cell's applications
+         */
+        public double lon() {
+            return lonSum / count;
+        }
+
+        public void write(DataOutput out) throws IOException {
+            out.writeLong(count);
+            out.writeDouble(latSum);
+            out.writeDouble(lonSum);
+        }
+
+        public void readFields(DataInput in) throws IOException {
+            count = in.readLong();
+            latSum = in.readDouble();
+            lonSum = in.readDouble();
+        }
+    }
+
+    /**
+     * Bins the applications of the ranked employers into grid cells.  The cells are kept in memory and written at
+     * the end of the task, there are at most a few thousand per employer.
+     * <p>
+     * The output key is the employer's index in the ranking in the high 32 bits, then the cell's row and column in
+     * 16 bits each.
+     */
+    public static class GridMapper extends Mapper<Object, Text, LongWritable, GridCell> {
+
+        private static final byte[] NA = "NA".getBytes(StandardCharsets.US_ASCII);
+        private final CsvFieldScanner scanner = new CsvFieldScanner(H1bColumns.LAT + 1);
+        private final Map<Text, Integer> employers = new HashMap<>();
+        private final Map<Long, GridCell> cells = new HashMap<>();
+        private final Text employer = new Text();
+        private final LongWritable outKey = new LongWritable();
+        private double cellDegrees;
+
+        protected void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            List<String> names = getEmployerNames(conf);
+            for (int index = 0; index < names.size(); index++)
+                employers.put(new Text(names.get(index)), index);
+            cellDegrees = getCellDegrees(conf);
+        }
+
+        /**
+         * Adds the row to its employer's grid cell, if its employer is ranked and its worksite was located.
+         *
+         * @param key     (Object) - Input key.  Not used in this function.
+         * @param value   (Text) - value is the Text object wrapping a row in the dataset csv
+         * @param context (Context) - The Context that we will be writing map output <key, value> pairs to
+         */
+        public void map(Object key, Text value, Context context) {
+            byte[] row = value.getBytes();
+            if (scanner.scan(row, value.getLength(), H1bColumns.LAT + 1) <= H1bColumns.LAT
+                    || !scanner.isQuoted(H1bColumns.EMPLOYER_NAME))
+                return;
+            employer.set(row, scanner.start(H1bColumns.EMPLOYER_NAME), scanner.length(H1bColumns.EMPLOYER_NAME));
+            Integer index = employers.get(employer);
+            if (index == null)
+                return;
+
+            double lat = parseCoordinate(row, H1bColumns.LAT);
+            double lon = parseCoordinate(row, H1bColumns.LON);
+            if (Double.isNaN(lat) || Double.isNaN(lon) || Math.abs(lat) > 90 || Math.abs(lon) > 180) {
+                context.getCounter(Counters.ROWS_NOT_LOCATED).increment(1);
+                return;
+            }
+            long cellRow = (long) Math.floor((lat + 90) / cellDegrees);
+            long cellColumn = (long) Math.floor((lon + 180) / cellDegrees);
+            long cellKey = (long) index << 32 | cellRow << 16 | cellColumn;
+            GridCell cell = cells.get(cellKey);
+            if (cell == null)
+                cells.put(cellKey, cell = new GridCell());
+            cell.add(lat, lon);
+        }
+
+        /**
+         * Writes out the cells.
+         *
+         * @param context (Context) - The context to write the output to
+         */
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            for (Map.Entry<Long, GridCell> cell : cells.entrySet()) {
+                outKey.set(cell.getKey());
+                context.write(outKey, cell.getValue());
+            }
+        }
+
+        /**
+         * lat and lon are bare decimal numbers, or NA when the worksite could not be located.
+         *
+         * @return Returns the coordinate, or NaN if it is blank or not a number
+         */
+        private double parseCoordinate(byte[] row, int column) {
+            if (scanner.isQuoted(column) || scanner.length(column) == 0 || scanner.valueEquals(column, NA))
+                return Double.NaN;
+            try {
+                return Double.parseDouble(new String(row, scanner.start(column), scanner.length(column),
+                        StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * Sums the partial cells written by the mappers.  Also used as the combiner.
+     */
+    public static class GridReducer extends Reducer<LongWritable, GridCell, LongWritable, GridCell> {
+
+        private final GridCell sum = new GridCell();
+
+        /**
+         * @param key     (LongWritable) - Employer index and grid cell
+         * @param values  (Iterable<GridCell>) - The partial cells of the mappers
+         * @param context (Context) - The context to write the cell to
+         */
+        public void reduce(LongWritable key, Iterable<GridCell> values, Context context)
+                throws IOException, InterruptedException {
+            sum.clear();
+            for (GridCell cell : values)
+                sum.add(cell);
+            context.write(key, sum);
+        }
+    }
+
+    /**
+     * @param conf  (Configuration) - Job Configuration
+     * @param names (List<String>) - The ranked employers, in ranking order
+     */
+    public static void setEmployerNames(Configuration conf, List<String> names) {
+        StringBuilder encoded = new StringBuilder();
+        for (String name : names) {
+            if (encoded.length() > 0)
+                encoded.append(',');
+            encoded.append(Base64.getEncoder().encodeToString(name.getBytes(StandardCharsets.UTF_8)));
+        }
+        conf.set(EMPLOYER_NAMES, encoded.toString());
+    }
+
+    /**
+     * @param conf (Configuration) - Job Configuration
+     * @return Returns the ranked employers set with setEmployerNames()
+     */
+    public static List<String> getEmployerNames(Configuration conf) {
+        List<String> names = new ArrayList<>();
+        for (String name : conf.getTrimmedStrings(EMPLOYER_NAMES))
+            names.add(new String(Base64.getDecoder().decode(name), StandardCharsets.UTF_8));
+        return names;
+    }
+
+    /**
+     * @param conf (Configuration) - Job Configuration
+     * @return Returns the width of a grid cell, in degrees
+     * @throws IllegalArgumentException if the grid would have more than 2^16 columns
+     */
+    public static double getCellDegrees(Configuration conf) {
+        double cellDegrees = conf.getDouble(CELL_DEGREES, 1.0);
+        if (!(cellDegrees >= 0.01))
+            throw new IllegalArgumentException(CELL_DEGREES + " must be at least 0.01, was " + cellDegrees);
+        return cellDegrees;
+    }
+
+    /**
+     * Reads the employers of a TopEmployers output directory, in ranking order.
+     *
+     * @param conf      (Configuration) - Job Configuration, with the output separator of the ranking
+     * @param fs        (FileSystem) - File system of the ranking
+     * @param ranking   (Path) - The output directory of TopEmployers
+     * @return Returns the employer names
+     */
+    private static List<String> readRanking(Configuration conf, FileSystem fs, Path ranking) throws IOException {
+        String separator = conf.get(TopKDriver.SEPARATOR, "\t");
+        List<String> names = new ArrayList<>();
+        for (FileStatus part : fs.listStatus(ranking, path -> path.getName().startsWith("part-"))) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(part.getPath()),
+                    StandardCharsets.UTF_8))) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    int end = line.lastIndexOf(separator);
+                    if (end > 0)
+                        names.add(line.substring(0, end));
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Writes the busiest cells of each employer to output/emp_data.json.
+     *
+     * @param conf   (Configuration) - Job Configuration
+     * @param fs     (FileSystem) - File system of the output
+     * @param names  (List<String>) - The ranked employers, in ranking order
+     * @param cells  (Path) - Output directory of the grid job
+     * @param output (Path) - The output directory
+     */
+    private static void writeGlobeData(Configuration conf, FileSystem fs, List<String> names, Path cells,
+                                       Path output) throws IOException {
+        List<List<GridCell>> employerCells = new ArrayList<>();
+        for (int index = 0; index < names.size(); index++)
+            employerCells.add(new ArrayList<GridCell>());
+        LongWritable key = new LongWritable();
+        for (FileStatus part : fs.listStatus(cells, path -> path.getName().startsWith("part-"))) {
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(part.getPath()))) {
+                GridCell cell = new GridCell();
+                while (reader.next(key, cell)) {
+                    employerCells.get((int) (key.get() >>> 32)).add(cell);
+                    cell = new GridCell();
+                }
+            }
+        }
+
+        int points = conf.getInt(POINTS, 50);
+        StringBuilder json = new StringBuilder("[\n");
+        for (int index = 0; index < names.size(); index++) {
+            List<GridCell> busiest = employerCells.get(index);
+            // Tied cells by position, so the output does not depend on the order of the part files
+            busiest.sort((a, b) -> a.count() != b.count() ? Long.compare(b.count(), a.count())
+                    : a.lat() != b.lat() ? Double.compare(a.lat(), b.lat()) : Double.compare(a.lon(), b.lon()));
+            json.append("\t[").append(Json.quote(names.get(index))).append(", [\n");
+            for (int point = 0; point < points; point++) {
+                GridCell cell = busiest.isEmpty() ? null : busiest.get(Math.min(point, busiest.size() - 1));
+                json.append("\t\t");
+                if (cell == null)
+                    json.append("0, 0, 0");
+                else
+                    json.append(String.format("%.6f, %.6f, %s", cell.lat(), cell.lon(), point < busiest.size()
+                            ? String.format("%.4f", (double) cell.count() / busiest.get(0).count()) : "0"));
+                json.append(point + 1 < points ? ",\n" : "\n");
+            }
+            json.append(index + 1 < names.size() ? "\t]],\n" : "\t]]\n");
+        }
+        json.append("]\n");
+        try (FSDataOutputStream out = fs.create(new Path(output, OUTPUT_FILE), false)) {
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        // Picks up -D options such as -D h1b.grid.cell.degrees=0.5 or -D h1b.filter.year.min=2016
+        String[] paths = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (paths.length != 2) {
+            System.err.println("Usage: WorksiteGrid [-D <option>=<value>...] <input> <output directory>");
+            System.exit(2);
+        }
+        Path input = new Path(paths[0]);
+        Path output = new Path(paths[1]);
+        getCellDegrees(conf); // Fail before any job runs
+        FileSystem fs = output.getFileSystem(conf);
+        if (fs.exists(output))
+            throw new FileAlreadyExistsException("Output directory " + output + " already exists");
+
+        // Both jobs read the csv, the grid needs the lat and lon columns
+        conf.setBoolean(ColumnarInputFormat.ENABLED, false);
+        Configuration rankConf = new Configuration(conf);
+        TopEmployers.setDefaults(rankConf);
+        rankConf.setInt(TopKReducer.K, conf.getInt(EMPLOYERS, 10));
+        Path ranking = new Path(output, "employers");
+        if (!TopKDriver.run(rankConf, "Employers Submitting Most Applications", WorksiteGrid.class,
+                TopEmployers.TokenizerMapper.class, TopEmployers.IntSumCombiner.class, input, ranking))
+            System.exit(1);
+        List<String> names = readRanking(rankConf, fs, ranking);
+        setEmployerNames(conf, names);
+
+        Job job = Job.getInstance(conf, "Worksite Grid");
+        job.setJarByClass(WorksiteGrid.class);
+        job.setMapperClass(GridMapper.class);
+        if (RowFilter.isConfigured(conf) || CsvRowRecordReader.isEnabled(conf))
+            job.setInputFormatClass(FilteringTextInputFormat.class);
+        job.setCombinerClass(GridReducer.class);
+        job.setReducerClass(GridReducer.class);
+        job.setNumReduceTasks(conf.getInt(TopKDriver.REDUCERS, 1));
+        job.setOutputKeyClass(LongWritable.class);
+        job.setOutputValueClass(GridCell.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        Path cells = new Path(output, "_cells");
+        FileInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, cells);
+        if (!job.waitForCompletion(true))
+            System.exit(1);
+
+        writeGlobeData(conf, fs, names, cells, output);
+        fs.delete(cells, true);
+        fs.create(new Path(output, "_SUCCESS")).close();
+        System.out.println("Wrote " + new Path(output, OUTPUT_FILE) + " for " + names.size() + " employers");
+    }
+}
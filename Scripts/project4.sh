@@ -9,11 +9,11 @@ echo "~DONE LOADING HADOOP"
 cd $SCRATCH/proj4
 hadoop com.sun.tools.javac.Main TopEmployers.java 
 echo "~Compiled TopEmployers.java"
-jar cf TopEmployers.jar TopEmployers*.class
+jar cf TopEmployers.jar *.class
 echo "~Created TopEmployers .jar"
 hadoop com.sun.tools.javac.Main TopJobTypesApproved.java 	
 echo "~Compiled TopEmployers.java"
-jar cf TopJobTypesApproved.jar TopJobTypesApproved*.class
+jar cf TopJobTypesApproved.jar *.class
 echo "~Created TopEmployers .jar"
 
 hadoop fs -mkdir -p input
@@ -0,0 +1,63 @@
+import h1b.benchmarks.ParsingTarget;
+import h1b.benchmarks.RankingTarget;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * The benchmarks' view of the current job classes, see h1b.benchmarks.Targets for why this class is in the default
+ * package.
+ */
+public class CurrentTargets {
+
+    /**
+     * Does what the TopEmployers and TopJobTypesApproved mappers (and the RowFilter of TopJobTypesApproved's record
+     * reader) do with a row before calling emit().
+     */
+    public static class Parsing implements ParsingTarget {
+
+        private final CsvKeyFinder employers = new CsvKeyFinder(TopEmployers.KEY_COLUMN);
+        private final CsvKeyFinder jobTitles = new CsvKeyFinder(TopJobTypesApproved.KEY_COLUMN);
+        private final RowFilter certified;
+        private final CsvFieldScanner statusScanner;
+
+        public Parsing() {
+            // The filter TopJobTypesApproved configures by default
+            Configuration conf = new Configuration(false);
+            RowFilter.setDefaultStatusPrefix(conf, "CERTIFIED");
+            certified = RowFilter.get(conf);
+            statusScanner = new CsvFieldScanner(certified.columnsNeeded());
+        }
+
+        public int employer(byte[] row, int length) {
+            return employers.find(row, length) ? employers.length() : -1;
+        }
+
+        public int certifiedJobTitle(byte[] row, int length) {
+            // RowFilter, in FilteringTextInputFormat's record reader
+            statusScanner.scan(row, length, certified.columnsNeeded());
+            if (!certified.accept(statusScanner, row))
+                return -1;
+            return jobTitles.find(row, length) ? jobTitles.length() : -1;
+        }
+    }
+
+    /**
+     * TopKRanking, as used by TopKReducer.
+     */
+    public static class Ranking implements RankingTarget {
+
+        private TopKRanking ranking;
+
+        public void reset(int k) {
+            ranking = new TopKRanking(k);
+        }
+
+        public void offer(int freq, byte[] key) {
+            ranking.offer(freq, key, 0, key.length);
+        }
+
+        public int size() {
+            return ranking.size();
+        }
+    }
+}
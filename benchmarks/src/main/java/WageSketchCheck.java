@@ -0,0 +1,117 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the percentiles of merged WageSketches against the exact percentiles of the same wages, the way
+ * WageStatistics uses them: the wages are split over many sketches (the mappers' sketches of one key), which are
+ * serialized, read back and merged in random order.
+ * <p>
+ * The wages are skewed like PREVAILING_WAGE: a Pareto tail, plus many applications sharing a few round wages.  For
+ * every estimated percentile the check measures its rank error, the distance from the percentile's rank to the ranks
+ * the estimated wage holds in the sorted wages, over the number of wages, and fails if the largest one is over the
+ * bound WageSketch documents.
+ * <p>
+ * WageSketch is a Hadoop Writable, so unlike the benchmarks the check needs Hadoop on the classpath.
+ * <p>
+ * Usage: java -cp target/benchmarks.jar:$(hadoop classpath) WageSketchCheck [k] [wages] [sketches] [trials]
+ */
+public class WageSketchCheck {
+
+    private static final double[] PERCENTILES = {0.01, 0.05, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 0.999};
+    private static final double BOUND = 0.017; // For the default k of 200
+
+    public static void main(String[] args) throws IOException {
+        int k = args.length > 0 ? Integer.parseInt(args[0]) : WageSketch.DEFAULT_K;
+        int wages = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int sketches = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int trials = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        double worst = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            Random random = new Random(trial);
+            long[] sample = skewedWages(random, wages);
+            long[] estimates = mergedSketch(random, sample, sketches, k).quantiles(PERCENTILES);
+            Arrays.sort(sample);
+            double trialWorst = 0;
+            for (int i = 0; i < PERCENTILES.length; i++)
+                trialWorst = Math.max(trialWorst, rankError(sample, PERCENTILES[i], estimates[i]));
+            System.out.printf("trial %d: worst rank error %.3f%%%n", trial, 100 * trialWorst);
+            worst = Math.max(worst, trialWorst);
+        }
+        System.out.printf("k=%d, %d wages in %d sketches, %d trials: worst rank error %.3f%%%n", k, wages, sketches,
+                trials, 100 * worst);
+        if (k == WageSketch.DEFAULT_K && worst > BOUND) {
+            System.out.printf("FAILED: over the documented bound of %.1f%%%n", 100 * BOUND);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return Returns wages from a Pareto distribution starting at 30000, a third of them rounded to 10000s
+     */
+    private static long[] skewedWages(Random random, int count) {
+        long[] wages = new long[count];
+        for (int i = 0; i < count; i++) {
+            long wage = (long) (30000 * Math.pow(1 - random.nextDouble(), -1 / 1.5));
+            wages[i] = random.nextInt(3) == 0 ? Math.min(wage, 1000000) / 10000 * 10000 : wage;
+        }
+        return wages;
+    }
+
+    /**
+     * Splits the wages over sketches of uneven sizes, then merges their serialized copies in random order.
+     */
+    private static WageSketch mergedSketch(Random random, long[] wages, int sketches, int k) throws IOException {
+        List<WageSketch> parts = new ArrayList<>();
+        for (int i = 0; i < sketches; i++)
+            parts.add(new WageSketch(k));
+        for (long wage : wages)
+            parts.get(Math.min(sketches - 1, (int) (sketches * Math.pow(random.nextDouble(), 2)))).add(wage);
+        Collections.shuffle(parts, random);
+
+        WageSketch merged = new WageSketch(k);
+        WageSketch read = new WageSketch(k);
+        for (WageSketch part : parts) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            part.write(new DataOutputStream(bytes));
+            read.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            merged.merge(read);
+        }
+        return merged;
+    }
+
+    /**
+     * @param sorted   (long[]) - The wages, sorted
+     * @param fraction (double) - The percentile, as a fraction
+     * @param estimate (long) - The estimated wage of the percentile
+     * @return Returns how far the rank of the percentile is from the ranks of estimate, as a fraction of the wages
+     */
+    private static double rankError(long[] sorted, double fraction, long estimate) {
+        long target = Math.max(1, (long) Math.ceil(fraction * sorted.length));
+        long below = lowerBound(sorted, estimate); // Wages < estimate
+        long atOrBelow = lowerBound(sorted, estimate + 1); // Wages <= estimate
+        long distance = target <= below ? below + 1 - target : target > atOrBelow ? target - atOrBelow : 0;
+        return (double) distance / sorted.length;
+    }
+
+    private static int lowerBound(long[] sorted, long value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] < value)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,144 @@
+package h1b.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates synthetic rows of h1b_kaggle.csv, so the benchmarks do not depend on the 470MB dataset.
+ * <p>
+ * Employer names and Job Titles are drawn from a skewed distribution like the real ones: a few values are very
+ * common and most are rare.  The rows cover the cases the parsers have to deal with:
+ * <p>
+ * - Quoted String columns, some containing commas ("HCL AMERICA, INC.") or escaped quotes
+ * - Blank (NA) CASE_STATUS, SOC_NAME, PREVAILING_WAGE, YEAR and lon/lat values, and blank ("") Employer names
+ * - Malformed rows: an Employer name whose closing quote is missing, and rows cut short after a few columns
+ * <p>
+ * The same seed always gives the same rows.
+ */
+public class H1bRowGenerator {
+
+    private static final String[] STATUSES = {"CERTIFIED", "CERTIFIED-WITHDRAWN", "WITHDRAWN", "DENIED", null};
+    private static final String[] COMMON_EMPLOYERS = {"INFOSYS LIMITED", "TATA CONSULTANCY SERVICES LIMITED",
+            "WIPRO LIMITED", "DELOITTE CONSULTING LLP", "HCL AMERICA, INC.", "ERNST & YOUNG U.S. LLP",
+            "COGNIZANT TECHNOLOGY SOLUTIONS U.S. CORPORATION", "LARSEN & TOUBRO INFOTECH LIMITED"};
+    private static final String[] SOC_NAMES = {"COMPUTER SYSTEMS ANALYSTS", "SOFTWARE DEVELOPERS, APPLICATIONS",
+            "ACCOUNTANTS AND AUDITORS", null};
+    private static final String[] COMMON_TITLES = {"PROGRAMMER ANALYST", "SOFTWARE ENGINEER", "COMPUTER PROGRAMMER",
+            "SYSTEMS ANALYST", "ANALYST, PROGRAMMER", "SENIOR SYSTEMS ANALYST, IT", "TECHNOLOGY LEAD - US"};
+    private static final String[] WORKSITES = {"NEW YORK, NEW YORK", "SAN JOSE, CALIFORNIA", "HOUSTON, TEXAS",
+            "ANN ARBOR, MICHIGAN"};
+
+    private final Random random;
+    private final double malformedRate;
+
+    /**
+     * @param seed          (long) - Random seed
+     * @param malformedRate (double) - Fraction of the rows that are malformed
+     */
+    public H1bRowGenerator(long seed, double malformedRate) {
+        this.random = new Random(seed);
+        this.malformedRate = malformedRate;
+    }
+
+    /**
+     * @param count (int) - Number of rows
+     * @return Returns count rows, as the bytes TextInputFormat would hand to a mapper (no line terminator)
+     */
+    public byte[][] rows(int count) {
+        byte[][] rows = new byte[count][];
+        for (int i = 0; i < count; i++)
+            rows[i] = row(i + 1).getBytes(StandardCharsets.UTF_8);
+        return rows;
+    }
+
+    /**
+     * @param id (int) - Value of the ID column
+     * @return Returns one csv row
+     */
+    public String row(int id) {
+        StringBuilder row = new StringBuilder(160);
+        row.append('"').append(id).append("\",");
+        appendQuoted(row, STATUSES[random.nextInt(STATUSES.length)]).append(',');
+
+        double malformed = random.nextDouble();
+        if (malformed < malformedRate / 2) {
+            // Employer name that is never closed, the rest of the row ends up inside it
+            row.append('"').append(employer()).append(',');
+        } else if (malformed < malformedRate) {
+            // Row cut short
+            appendQuoted(row, employer());
+            return row.toString();
+        } else if (random.nextInt(500) == 0) {
+            row.append("\"\","); // Blank Employer name
+        } else {
+            appendQuoted(row, employer()).append(',');
+        }
+
+        appendQuoted(row, SOC_NAMES[random.nextInt(SOC_NAMES.length)]).append(',');
+        appendQuoted(row, jobTitle()).append(',');
+        appendQuoted(row, random.nextBoolean() ? "Y" : "N").append(',');
+        switch (random.nextInt(3)) {
+            case 0:
+                row.append(20000 + random.nextInt(180000));
+                break;
+            case 1:
+                row.append(20000 + random.nextInt(1800000) / 10.0);
+                break;
+            default:
+                row.append("NA");
+        }
+        row.append(',');
+        if (random.nextInt(7) == 0)
+            row.append("NA");
+        else
+            row.append(2011 + random.nextInt(6));
+        row.append(',');
+        appendQuoted(row, WORKSITES[random.nextInt(WORKSITES.length)]).append(',');
+        if (random.nextInt(30) == 0)
+            row.append("NA,NA");
+        else
+            row.append(-74 - random.nextInt(48) - random.nextDouble()).append(',')
+                    .append(29 + random.nextInt(13) + random.nextDouble());
+        return row.toString();
+    }
+
+    /**
+     * A few employers file most of the applications, the rest are spread over tens of thousands of names.
+     */
+    private String employer() {
+        int rank = skewedRank();
+        if (rank < COMMON_EMPLOYERS.length)
+            return COMMON_EMPLOYERS[rank];
+        if (rank % 50 == 0)
+            return "THE \"\"BEST\"\" STAFFING " + rank + ", LLC"; // Escaped quotes
+        if (rank % 3 == 0)
+            return "EMPLOYER " + rank + ", INC.";
+        return "SMALL CO " + rank;
+    }
+
+    private String jobTitle() {
+        int rank = skewedRank();
+        if (rank < COMMON_TITLES.length)
+            return COMMON_TITLES[rank];
+        if (rank % 4 == 0)
+            return "ENGINEER, LEVEL " + rank;
+        return "TITLE " + rank;
+    }
+
+    /**
+     * @return Returns a Pareto distributed rank, small ranks being the most likely
+     */
+    private int skewedRank() {
+        double pareto = Math.pow(1 - random.nextDouble(), -1 / 1.1);
+        return (int) Math.min(pareto - 1, 50000);
+    }
+
+    /**
+     * Strings are written surrounded by quotes, blank values (null) as a bare NA.
+     */
+    private static StringBuilder appendQuoted(StringBuilder row, String value) {
+        if (value == null)
+            return row.append("NA");
+        return row.append('"').append(value).append('"');
+    }
+}
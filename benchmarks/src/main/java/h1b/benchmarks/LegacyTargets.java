@@ -0,0 +1,147 @@
+package h1b.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+/**
+ * The original parsing and ranking code of the two jobs (getEmployer(), getJobTitle(), getColumnStringEndIndex(),
+ * offerToTopTen() / offerToTopTwenty() and their TreeMap of LinkedLists), kept as the baseline the current code is
+ * measured against.  The method bodies are unchanged, except that:
+ * <p>
+ * - The rankings hold a copy of the key's bytes instead of a new Text(key.toString()), so that the benchmarks do not
+ * need Hadoop at runtime.  Both allocate a copy of every key offered.
+ * - The ranking size is k instead of the hard coded 10 or 20.
+ * - Rows that made the original code throw (it would have failed the map task) are counted as discarded.
+ */
+public class LegacyTargets {
+
+    public static class Parsing implements ParsingTarget {
+
+        public int employer(byte[] row, int length) {
+            try {
+                // Text.toString() decodes the row the same way
+                String employer = getEmployer(new String(row, 0, length, StandardCharsets.UTF_8).split(","));
+                return employer.length() > 1 ? employer.length() : -1;
+            } catch (IndexOutOfBoundsException e) {
+                return -1;
+            }
+        }
+
+        public int certifiedJobTitle(byte[] bytes, int length) {
+            try {
+                String[] row = new String(bytes, 0, length, StandardCharsets.UTF_8).split(",");
+                if (row[1].length() == 0 || !row[1].contains("CER"))
+                    return -1;
+                String jobTitle = getJobTitle(row);
+                return jobTitle.length() > 1 ? jobTitle.length() : -1;
+            } catch (IndexOutOfBoundsException e) {
+                return -1;
+            }
+        }
+
+        public String getEmployer(String[] row) {
+            String employer = "";
+            int index = 2; //starting index of employer
+
+            // Build the string of the employer's name
+            while (index < row.length) {
+                String temp = row[index];
+                if (temp.length() < 1) //account for records where employer or unexpected behavior is occurring
+                    return employer;
+                employer += temp;
+
+                if (temp.charAt(temp.length() - 1) == '"') // reached end of employer's name
+                    break;
+                employer += ",";
+                index++;
+            }
+            //return employer's name without the quotes, commas included if they exist
+            return employer.substring(1, employer.length() - 1);
+        }
+
+        public String getJobTitle(String[] row) {
+            int employerNameStartIndex = 2;
+            int socNameStartIndex = getColumnStringEndIndex(employerNameStartIndex, row) + 1;
+            if (socNameStartIndex == 0) // getColumnStringEndIndex returned - 1
+                return "";
+
+            int jobTitleStartIndex = getColumnStringEndIndex(socNameStartIndex, row) + 1;
+            if (jobTitleStartIndex == 0) // getColumnStringEndIndex returned - 1
+                return "";
+            else {
+                String JTStart = row[jobTitleStartIndex];
+                if (JTStart.length() < 2)
+                    return "";
+                // If job title is not split across multiple elements, return it
+                if (JTStart.charAt(JTStart.length() - 1) == '"' && JTStart.charAt(0) == '"')
+                    return JTStart.substring(1, JTStart.length() - 1); // return Job Title without quotes
+            }
+
+            // Job Title is spread across multiple row[] elements, get its end index
+            int jobTitleEndIndex = getColumnStringEndIndex(jobTitleStartIndex, row);
+            if (jobTitleEndIndex == -1) // getColumnStringEndIndex returned -1
+                return "";
+
+            String jobTitle = "";
+            //Build jobTitle String
+            for (int index = jobTitleStartIndex; index <= jobTitleEndIndex; index++) {
+                jobTitle += row[index];
+                if (index != jobTitleEndIndex)
+                    jobTitle += ",";
+            }
+            return jobTitle.substring(1, jobTitle.length() - 1);
+        }
+
+        public int getColumnStringEndIndex(int startIndex, String[] row) {
+            int index = startIndex;
+            while (index < row.length) {
+                String token = row[index];
+                if (token.length() < 1 || token.charAt(token.length() - 1) == '"')
+                    return index; // return index if column is empty or we've reached end of String for this column
+                index++;
+            }
+            return -1; // Reached end of row when shouldn't have, row was incorrectly formatted, return -1
+        }
+    }
+
+    public static class Ranking implements RankingTarget {
+
+        private TreeMap<Integer, LinkedList<byte[]>> topTen = new TreeMap<>();
+        private int k;
+
+        public void reset(int k) {
+            this.k = k;
+            topTen = new TreeMap<>();
+        }
+
+        public void offer(int freq, byte[] key) {
+            offerToTopTen(freq, Arrays.copyOf(key, key.length));
+        }
+
+        public int size() {
+            return topTen.size();
+        }
+
+        public void offerToTopTen(int freq, byte[] employer) {
+            if (topTen.size() < k || freq == topTen.firstKey())
+                addToTopTen(freq, employer);
+            else if (freq > topTen.firstKey()) {
+                topTen.pollFirstEntry(); // IMPORTANT: Removes the rank 10 element to make room for new addition
+                addToTopTen(freq, employer);
+            }
+        }
+
+        public void addToTopTen(int freq, byte[] employer) {
+            LinkedList<byte[]> employerList = topTen.get(freq);
+            if (employerList == null) {
+                //topTen.size() < 10 at this point
+                employerList = new LinkedList<byte[]>(); // Add employer as the first element of this list
+                employerList.add(employer);
+                topTen.put(freq, employerList);
+            } else // There is a tie, there is already a list of employer names for this frequency.
+                employerList.add(employer);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package h1b.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the mappers' row parsing, in rows per second.  Every invocation parses the same ROWS synthetic rows
+ * (see H1bRowGenerator), so the scores are per row.
+ * <p>
+ * Run with -prof gc to see the allocation rate (gc.alloc.rate.norm is the number of bytes allocated per row).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+
+    private static final int ROWS = 4096;
+
+    @Param({"legacy", "current"})
+    public String implementation;
+
+    @Param({"0.01"})
+    public double malformedRate;
+
+    private ParsingTarget target;
+    private byte[][] rows;
+
+    @Setup
+    public void setup() {
+        target = Targets.parsing(implementation);
+        rows = new H1bRowGenerator(42, malformedRate).rows(ROWS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void employer(Blackhole blackhole) {
+        for (byte[] row : rows)
+            blackhole.consume(target.employer(row, row.length));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void certifiedJobTitle(Blackhole blackhole) {
+        for (byte[] row : rows)
+            blackhole.consume(target.certifiedJobTitle(row, row.length));
+    }
+}
@@ -0,0 +1,22 @@
+package h1b.benchmarks;
+
+/**
+ * The per-row work of the TopEmployers and TopJobTypesApproved mappers, minus writing to the Context.
+ */
+public interface ParsingTarget {
+
+    /**
+     * @param row    (byte[]) - The bytes of a csv row
+     * @param length (int) - Number of valid bytes in row[]
+     * @return Returns the length of the Employer name that would be counted, or -1 if the row would be discarded
+     */
+    int employer(byte[] row, int length);
+
+    /**
+     * @param row    (byte[]) - The bytes of a csv row
+     * @param length (int) - Number of valid bytes in row[]
+     * @return Returns the length of the Job Title that would be counted, or -1 if the row would be discarded because
+     * it is not CERTIFIED or its Job Title is not usable
+     */
+    int certifiedJobTitle(byte[] row, int length);
+}
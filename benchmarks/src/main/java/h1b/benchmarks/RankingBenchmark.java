@@ -0,0 +1,70 @@
+package h1b.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the reducer's Top K ranking, in offered keys per second.  Every invocation offers KEYS <key, freq>
+ * pairs to a new ranking, which is what one reducer does with its partition of the keys.
+ * <p>
+ * Frequencies follow the skewed distribution of the dataset: most keys have a small frequency shared with many
+ * other keys, so there are plenty of ties, and a few keys have a large one.  The keys are offered in a random order,
+ * like the reducer sees them (sorted by key, not by frequency).
+ * <p>
+ * Run with -prof gc to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RankingBenchmark {
+
+    private static final int KEYS = 50000;
+
+    @Param({"legacy", "current"})
+    public String implementation;
+
+    @Param({"10", "20", "1000"})
+    public int k;
+
+    private RankingTarget target;
+    private int[] freqs;
+    private byte[][] keys;
+
+    @Setup
+    public void setup() {
+        target = Targets.ranking(implementation);
+        Random random = new Random(42);
+        freqs = new int[KEYS];
+        keys = new byte[KEYS][];
+        for (int i = 0; i < KEYS; i++) {
+            freqs[i] = (int) Math.min(Math.pow(1 - random.nextDouble(), -1 / 1.1), 100000);
+            keys[i] = ("EMPLOYER " + i + ", INC.").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public int offer() {
+        target.reset(k);
+        for (int i = 0; i < KEYS; i++)
+            target.offer(freqs[i], keys[i]);
+        return target.size();
+    }
+}
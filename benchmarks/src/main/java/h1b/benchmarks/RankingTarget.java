@@ -0,0 +1,25 @@
+package h1b.benchmarks;
+
+/**
+ * A reducer's Top K ranking.
+ */
+public interface RankingTarget {
+
+    /**
+     * Starts a new, empty ranking.
+     *
+     * @param k (int) - Number of distinct frequencies to rank
+     */
+    void reset(int k);
+
+    /**
+     * @param freq (int) - Total frequency of the key
+     * @param key  (byte[]) - The key's bytes, which the ranking may not keep a reference to
+     */
+    void offer(int freq, byte[] key);
+
+    /**
+     * @return Returns the number of distinct frequencies ranked
+     */
+    int size();
+}
@@ -0,0 +1,41 @@
+package h1b.benchmarks;
+
+/**
+ * Loads the implementations that call into the job classes.
+ * <p>
+ * The job classes are in the default package, which no named package can import, and JMH refuses benchmarks in the
+ * default package.  The benchmarks therefore only see the job classes through the ParsingTarget and RankingTarget
+ * interfaces, implemented by CurrentTargets (in the default package) and loaded by name once per trial.  The calls
+ * through the interfaces only ever see one implementation, so the JIT inlines them as it would direct calls.
+ */
+public class Targets {
+
+    /**
+     * @param implementation (String) - "legacy" for the original split(",") / TreeMap code, "current" for the code
+     *                       in MapReduce_Jobs
+     * @return Returns the parsing target
+     */
+    public static ParsingTarget parsing(String implementation) {
+        if ("legacy".equals(implementation))
+            return new LegacyTargets.Parsing();
+        return (ParsingTarget) load("CurrentTargets$Parsing");
+    }
+
+    /**
+     * @param implementation (String) - "legacy" or "current", see parsing()
+     * @return Returns the ranking target
+     */
+    public static RankingTarget ranking(String implementation) {
+        if ("legacy".equals(implementation))
+            return new LegacyTargets.Ranking();
+        return (RankingTarget) load("CurrentTargets$Ranking");
+    }
+
+    private static Object load(String className) {
+        try {
+            return Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not load " + className, e);
+        }
+    }
+}